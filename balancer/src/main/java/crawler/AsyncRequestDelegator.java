@@ -1,76 +1,424 @@
 package crawler;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
+import org.apache.http.client.methods.HttpPost;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.HashMultimap;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 
-public class AsyncRequestDelegator {
+import crawler.model.ProcessedHtml;
+
+public class AsyncRequestDelegator implements AutoCloseable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AsyncRequestDelegator.class);
 
-    private final List<CrawlingSerivce> services;
+    private static final CancellationException NOT_HEDGED = new CancellationException("not hedged");
+
+    private final ConsistentHashRing<CrawlingSerivce> services;
+    private final Map<CrawlingSerivce, NodeHealth> health = new IdentityHashMap<>();
     private final ExecutorService executor;
+    private final ScheduledExecutorService prober = Executors.newSingleThreadScheduledExecutor();
+    private final ScheduledExecutorService hedgeTimer = Executors.newSingleThreadScheduledExecutor();
+    private final long timeout;
+    private final Optional<Hedging> hedging;
 
-    public AsyncRequestDelegator(List<CrawlingSerivce> services) {
+    /**
+     * @param timeout how long to wait for the nodes of a batch, in ms
+     * @param failureThreshold failures in a row after which a node gets no
+     *            urls for {@code openMs}
+     * @param probeIntervalMs how often the health of the nodes is checked
+     * @param hedging if present, slow buckets are also sent to a second node
+     */
+    public AsyncRequestDelegator(ConsistentHashRing<CrawlingSerivce> services, long timeout, int failureThreshold,
+            long openMs, long probeIntervalMs, Optional<Hedging> hedging) {
         this.services = services;
-        this.executor = Executors.newFixedThreadPool(services.size());
+        this.executor = Executors.newCachedThreadPool();
+        this.timeout = timeout;
+        this.hedging = hedging;
+
+        for (CrawlingSerivce service : services.nodes()) {
+            health.put(service, new NodeHealth(failureThreshold, openMs));
+        }
+        prober.scheduleWithFixedDelay(this::probe, probeIntervalMs, probeIntervalMs, TimeUnit.MILLISECONDS);
     }
 
-    public Map<String, String> crawl(boolean js, List<String> allUrlsToCrawl) {
-        ServiceCall<String> call = (s, u) -> s.crawl(js, u);
-        return asyncCall(allUrlsToCrawl, call);
+    public BatchResult<String> crawl(boolean js, List<String> allUrlsToCrawl) {
+        ServiceCall<String> call = (s, u, onRequest) -> s.crawl(js, u, onRequest);
+        return asyncCall(js, allUrlsToCrawl, call);
     }
 
-    public Map<String, ProcessedHtml> crawlProcessed(boolean js, List<String> allUrlsToCrawl) {
-        ServiceCall<ProcessedHtml> call = (s, u) -> s.crawlProcessed(js, u);
-        return asyncCall(allUrlsToCrawl, call);
+    public BatchResult<ProcessedHtml> crawlProcessed(boolean js, List<String> allUrlsToCrawl) {
+        ServiceCall<ProcessedHtml> call = (s, u, onRequest) -> s.crawlProcessed(js, u, onRequest);
+        return asyncCall(js, allUrlsToCrawl, call);
     }
 
-    private <E> Map<String, E> asyncCall(List<String> allUrlsToCrawl, ServiceCall<E> call) {
-        Multimap<Integer, String> bucketedUrls = HashMultimap.create();
+    /**
+     * The urls of the nodes that are not available are sent to the next
+     * available node on the ring. A node that fails or does not answer in
+     * time does not fail the batch: its urls are reported as failed, and the
+     * results of the other nodes are returned. The requests that did not
+     * answer in time are aborted, which frees their threads and connections.
+     */
+    private <E> BatchResult<E> asyncCall(boolean js, List<String> allUrlsToCrawl, ServiceCall<E> call) {
+        BatchResult<E> result = new BatchResult<>();
+        Set<CrawlingSerivce> available = availableNodes();
+
+        Multimap<CrawlingSerivce, String> bucketedUrls = HashMultimap.create();
         for (String url : allUrlsToCrawl) {
-            int bucket = bucket(url, services.size());
-            bucketedUrls.put(bucket, url);
+            Optional<CrawlingSerivce> service = services.get(url, available::contains);
+            if (service.isPresent()) {
+                bucketedUrls.put(service.get(), url);
+            } else {
+                result.fail(url, "no healthy crawler node");
+            }
+        }
+
+        for (CrawlingSerivce service : Sets.difference(available, bucketedUrls.keySet())) {
+            health.get(service).release();
+        }
+
+        Map<CrawlingSerivce, CompletableFuture<Map<String, E>>> futures = new LinkedHashMap<>();
+        Map<CrawlingSerivce, Bucket> buckets = new HashMap<>();
+        for (CrawlingSerivce service : bucketedUrls.keySet()) {
+            Collection<String> bucketToCrawl = bucketedUrls.get(service);
+            Bucket bucket = new Bucket();
+            buckets.put(service, bucket);
+            futures.put(service, hedgedCall(js, service, bucketToCrawl, available, call, bucket));
+        }
+
+        long deadline = System.currentTimeMillis() + timeout;
+
+        for (Entry<CrawlingSerivce, CompletableFuture<Map<String, E>>> e : futures.entrySet()) {
+            CrawlingSerivce service = e.getKey();
+            Collection<String> urls = bucketedUrls.get(service);
+            try {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                Map<String, E> nodeResults = e.getValue().get(remaining, TimeUnit.MILLISECONDS);
+                result.addResults(nodeResults);
+                for (String url : urls) {
+                    if (!nodeResults.containsKey(url)) {
+                        result.fail(url, "not crawled by " + service.getBaseUrl());
+                    }
+                }
+            } catch (TimeoutException ex) {
+                LOGGER.warn("{} did not answer in {} ms", service.getBaseUrl(), timeout);
+                buckets.get(service).abort();
+                e.getValue().cancel(true);
+                health.get(service).recordFailure();
+                result.fail(urls, "timeout from " + service.getBaseUrl());
+            } catch (ExecutionException ex) {
+                LOGGER.warn("{} failed: {}", service.getBaseUrl(), ex.getCause().getMessage());
+                result.fail(urls, "error from " + service.getBaseUrl() + ": " + ex.getCause().getMessage());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                result.fail(urls, "interrupted");
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Sends the bucket to its node and, if it takes longer than the hedging
+     * delay and the budget allows it, also to the next available nodes on the
+     * ring. The first successful answer is taken, and the other call is
+     * aborted.
+     */
+    private <E> CompletableFuture<Map<String, E>> hedgedCall(boolean js, CrawlingSerivce service,
+            Collection<String> urls, Set<CrawlingSerivce> available, ServiceCall<E> call, Bucket bucket) {
+        CompletableFuture<Map<String, E>> primary = submit(js, service, urls, call, bucket, false);
+        if (!hedging.isPresent()) {
+            return primary;
+        }
+
+        Hedging hedging = this.hedging.get();
+        hedging.onRequest(urls.size());
+        OptionalLong delay = hedging.delay(js, urls.size());
+        if (!delay.isPresent()) {
+            return primary;
+        }
+
+        CompletableFuture<Map<String, E>> hedge = new CompletableFuture<>();
+        ScheduledFuture<?> timer = hedgeTimer.schedule(() -> {
+            if (primary.isDone() || !hedging.tryAcquire(urls.size())) {
+                hedge.completeExceptionally(NOT_HEDGED);
+                return;
+            }
+            LOGGER.debug("{} is slower than {} ms, hedging {} urls", service.getBaseUrl(), delay.getAsLong(),
+                    urls.size());
+            secondaryCall(js, service, urls, available, call, bucket).whenComplete((r, t) -> complete(hedge, r, t));
+        }, delay.getAsLong(), TimeUnit.MILLISECONDS);
+
+        primary.whenComplete((r, t) -> {
+            if (timer.cancel(false)) {
+                hedge.completeExceptionally(NOT_HEDGED);
+            }
+        });
+
+        return firstSuccessful(primary, hedge, bucket);
+    }
+
+    private <E> CompletableFuture<Map<String, E>> secondaryCall(boolean js, CrawlingSerivce primary,
+            Collection<String> urls, Set<CrawlingSerivce> available, ServiceCall<E> call, Bucket bucket) {
+        Multimap<CrawlingSerivce, String> secondaries = HashMultimap.create();
+        for (String url : urls) {
+            Optional<CrawlingSerivce> secondary = services.get(url, s -> s != primary && available.contains(s));
+            if (!secondary.isPresent()) {
+                CompletableFuture<Map<String, E>> noSecondary = new CompletableFuture<>();
+                noSecondary.completeExceptionally(NOT_HEDGED);
+                return noSecondary;
+            }
+            secondaries.put(secondary.get(), url);
         }
 
-        List<Future<Map<String, E>>> futures = Lists.newArrayList();
-        for (int bucket : bucketedUrls.keySet()) {
-            CrawlingSerivce service = services.get(bucket);
-            Collection<String> bucketToCrawl = bucketedUrls.get(bucket);
-            Future<Map<String, E>> future = executor.submit(() -> call.call(service, bucketToCrawl));
-            futures.add(future);
+        Map<CrawlingSerivce, CompletableFuture<Map<String, E>>> calls = new HashMap<>();
+        for (CrawlingSerivce secondary : secondaries.keySet()) {
+            calls.put(secondary, submit(js, secondary, secondaries.get(secondary), call, bucket, true));
         }
 
-        ImmutableMap.Builder<String, E> allResults = new ImmutableMap.Builder<>();
+        CompletableFuture<?>[] all = calls.values().toArray(new CompletableFuture<?>[0]);
+        return CompletableFuture.allOf(all).thenApply(v -> {
+            Map<String, E> merged = new HashMap<>();
+            calls.values().forEach(c -> merged.putAll(c.join()));
+            return merged;
+        });
+    }
+
+    /**
+     * Completes with the first of the two that succeeds, and aborts the
+     * other, or with the failure of the primary if both fail
+     */
+    private static <E> CompletableFuture<Map<String, E>> firstSuccessful(CompletableFuture<Map<String, E>> primary,
+            CompletableFuture<Map<String, E>> hedge, Bucket bucket) {
+        CompletableFuture<Map<String, E>> result = new CompletableFuture<>();
+        AtomicInteger failed = new AtomicInteger();
+        primary.whenComplete((r, t) -> {
+            if (t == null) {
+                bucket.abortHedges();
+                result.complete(r);
+            } else if (failed.incrementAndGet() == 2) {
+                complete(result, r, t);
+            }
+        });
+        hedge.whenComplete((r, t) -> {
+            if (t == null) {
+                bucket.abortPrimary();
+                result.complete(r);
+            } else if (failed.incrementAndGet() == 2) {
+                primary.whenComplete((pr, pt) -> complete(result, pr, pt));
+            }
+        });
+        return result;
+    }
 
-        for (Future<Map<String, E>> future : futures) {
+    private static <E> void complete(CompletableFuture<E> future, E value, Throwable error) {
+        if (error == null) {
+            future.complete(value);
+        } else {
+            future.completeExceptionally(error);
+        }
+    }
+
+    private <E> CompletableFuture<Map<String, E>> submit(boolean js, CrawlingSerivce service,
+            Collection<String> urls, ServiceCall<E> call, Bucket bucket, boolean hedge) {
+        NodeCall nodeCall = new NodeCall(hedge);
+        bucket.add(nodeCall);
+        return CompletableFuture.supplyAsync(() -> {
             try {
-                allResults.putAll(future.get());
+                return timedCall(js, service, urls, call, nodeCall);
             } catch (Exception e) {
-                LOGGER.error("got error while processing", e);
-                throw new RuntimeException(e);
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * The health of the node is recorded only for calls that were not
+     * aborted: the batch has already accounted for a call that timed out,
+     * and a call that lost to a hedge did not fail. Only the latencies of
+     * primary calls are recorded for hedging, hedges would skew the delay
+     * they are sent after.
+     */
+    private <E> Map<String, E> timedCall(boolean js, CrawlingSerivce service, Collection<String> urls,
+            ServiceCall<E> call, NodeCall nodeCall) throws Exception {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        try {
+            Map<String, E> results = call.call(service, urls, nodeCall::started);
+            long latency = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+            if (nodeCall.isAborted()) {
+                aborted(js, service, urls, nodeCall, latency);
+            } else {
+                health.get(service).recordSuccess(latency);
+                if (!nodeCall.hedge) {
+                    hedging.ifPresent(h -> h.recordLatency(js, urls.size(), latency));
+                }
+            }
+            return results;
+        } catch (Exception e) {
+            if (nodeCall.isAborted()) {
+                aborted(js, service, urls, nodeCall, stopwatch.elapsed(TimeUnit.MILLISECONDS));
+            } else {
+                health.get(service).recordFailure();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * An aborted primary call may have been the trial of a half open node,
+     * which is given back so that the node is tried again. It took at least
+     * as long as it ran, which is recorded for hedging, so that the slow
+     * calls stay in its latencies.
+     */
+    private void aborted(boolean js, CrawlingSerivce service, Collection<String> urls, NodeCall nodeCall,
+            long latency) {
+        if (!nodeCall.hedge) {
+            health.get(service).release();
+            hedging.ifPresent(h -> h.recordLatency(js, urls.size(), latency));
+        }
+    }
+
+    private Set<CrawlingSerivce> availableNodes() {
+        Set<CrawlingSerivce> available = Sets.newIdentityHashSet();
+        for (CrawlingSerivce service : services.nodes()) {
+            if (health.get(service).tryAcquire()) {
+                available.add(service);
+            }
+        }
+        return available;
+    }
+
+    private void probe() {
+        for (CrawlingSerivce service : services.nodes()) {
+            boolean healthy = service.isHealthy();
+            if (!healthy) {
+                LOGGER.warn("{} is not healthy", service.getBaseUrl());
             }
+            health.get(service).recordProbe(healthy);
         }
+    }
 
-        return allResults.build();
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (CrawlingSerivce service : services.nodes()) {
+            stats.put(service.getBaseUrl(), health.get(service).stats());
+        }
+        hedging.ifPresent(h -> stats.put("hedging", h.stats()));
+        return stats;
     }
 
-    private static int bucket(String url, int n) {
-        return Math.abs(url.hashCode()) % n;
+    @Override
+    public void close() throws Exception {
+        prober.shutdownNow();
+        hedgeTimer.shutdownNow();
+        executor.shutdownNow();
     }
 
     private static interface ServiceCall<E> {
-        Map<String, E> call(CrawlingSerivce service, Collection<String> urls) throws Exception;
+        Map<String, E> call(CrawlingSerivce service, Collection<String> urls, Consumer<HttpPost> onRequest)
+                throws Exception;
+    }
+
+    /**
+     * The request of one call to a node, which can be aborted before or
+     * while it is sent
+     */
+    private static final class NodeCall {
+        /** sent to a secondary node when the primary one was slow */
+        private final boolean hedge;
+        private final AtomicBoolean aborted = new AtomicBoolean();
+        private volatile HttpPost request;
+
+        NodeCall(boolean hedge) {
+            this.hedge = hedge;
+        }
+
+        void started(HttpPost request) {
+            this.request = request;
+            if (aborted.get()) {
+                request.abort();
+            }
+        }
+
+        void abort() {
+            if (aborted.compareAndSet(false, true)) {
+                HttpPost current = request;
+                if (current != null) {
+                    current.abort();
+                }
+            }
+        }
+
+        boolean isAborted() {
+            return aborted.get();
+        }
+    }
+
+    /**
+     * The calls made for the urls of one node: to the node itself, and to
+     * the nodes the urls were hedged to. A call added after its side was
+     * aborted is aborted at once.
+     */
+    private static final class Bucket {
+        private final List<NodeCall> calls = new ArrayList<>();
+        private boolean primaryAborted = false;
+        private boolean hedgesAborted = false;
+
+        synchronized void add(NodeCall call) {
+            calls.add(call);
+            abortIfDue(call);
+        }
+
+        /** the hedge answered first */
+        synchronized void abortPrimary() {
+            primaryAborted = true;
+            calls.forEach(this::abortIfDue);
+        }
+
+        /** the primary node answered first */
+        synchronized void abortHedges() {
+            hedgesAborted = true;
+            calls.forEach(this::abortIfDue);
+        }
+
+        synchronized void abort() {
+            primaryAborted = true;
+            hedgesAborted = true;
+            calls.forEach(this::abortIfDue);
+        }
+
+        private void abortIfDue(NodeCall call) {
+            if (call.hedge ? hedgesAborted : primaryAborted) {
+                call.abort();
+            }
+        }
     }
 }
@@ -1,31 +1,95 @@
 package crawler;
 
 import java.util.List;
+import java.util.Optional;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.Resource;
 
-import com.google.common.collect.Lists;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
 
 @Configuration
 public class BalancerContainer {
 
+    private static final Splitter WHITESPACE = Splitter.on(CharMatcher.whitespace()).omitEmptyStrings();
+
     @Value("classpath:addresses.txt")
     private Resource serverUrls;
 
+    /**
+     * Every line of addresses.txt is the base url of a crawler, optionally
+     * followed by its weight: a node with weight 2 gets twice as many urls
+     * as a node with the default weight 1.
+     */
     @Bean
-    public AsyncRequestDelegator crawler() throws Exception {
-        List<String> urls = IOUtils.readLines(serverUrls.getInputStream());
+    public AsyncRequestDelegator crawler(CloseableHttpClient httpClient,
+            @Value("${balancer.node.timeout.ms}") int timeout,
+            @Value("${balancer.node.failures.to.open}") int failuresToOpen,
+            @Value("${balancer.node.open.ms}") long openMs,
+            @Value("${balancer.node.probe.interval.ms}") long probeIntervalMs,
+            @Value("${balancer.node.format}") String format,
+            @Value("${balancer.hedge.enabled}") boolean hedge,
+            @Value("${balancer.hedge.percentile}") double hedgePercentile,
+            @Value("${balancer.hedge.budget}") double hedgeBudget,
+            @Value("${balancer.hedge.min.samples}") int hedgeMinSamples) throws Exception {
+        boolean smile = "smile".equalsIgnoreCase(format);
+        List<String> lines = IOUtils.readLines(serverUrls.getInputStream());
+
+        ConsistentHashRing<CrawlingSerivce> services = new ConsistentHashRing<>();
+        for (String line : lines) {
+            List<String> parts = WHITESPACE.splitToList(line);
+            if (parts.isEmpty() || parts.get(0).startsWith("#")) {
+                continue;
+            }
 
-        List<CrawlingSerivce> services = Lists.newArrayList();
-        for (String url : urls) {
-            services.add(new CrawlingSerivce(url));
+            String url = parts.get(0);
+            int weight = parts.size() > 1 ? Integer.parseInt(parts.get(1)) : 1;
+            services.add(url, new CrawlingSerivce(url, httpClient, smile), weight);
         }
 
-        return new AsyncRequestDelegator(services);
+        Optional<Hedging> hedging = Optional.empty();
+        if (hedge) {
+            hedging = Optional.of(new Hedging(hedgePercentile, hedgeBudget, hedgeMinSamples));
+        }
+
+        return new AsyncRequestDelegator(services, timeout, failuresToOpen, openMs, probeIntervalMs, hedging);
+    }
+
+    /**
+     * Keep-alive connections to the crawler nodes, shared by all of them.
+     * With gzip the responses are compressed by the nodes, which saves
+     * bandwidth but costs cpu on both sides.
+     */
+    @Bean
+    public CloseableHttpClient httpClient(@Value("${balancer.node.timeout.ms}") int timeout,
+            @Value("${balancer.node.max.connections}") int maxConnectionsPerNode,
+            @Value("${balancer.node.gzip}") boolean gzip) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(timeout)
+                .setSocketTimeout(timeout)
+                .setConnectionRequestTimeout(timeout)
+                .build();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerNode);
+        connectionManager.setMaxTotal(Integer.MAX_VALUE);
+
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig);
+        if (!gzip) {
+            builder.disableContentCompression();
+        }
+        return builder.build();
     }
 
 }
@@ -13,6 +13,8 @@ import org.springframework.web.bind.annotation.RestController;
 
 import com.google.common.base.Stopwatch;
 
+import crawler.model.ProcessedHtml;
+
 @RestController
 public class BalancerController {
 
@@ -24,28 +26,40 @@ public class BalancerController {
         this.delegator = delegator;
     }
 
+    /**
+     * @param details if true, the response also has the reason for every url
+     *            that could not be crawled, otherwise only the results of the
+     *            urls that were crawled
+     */
     @RequestMapping("crawl")
-    public Map<String, String> getHtml(@RequestParam(name = "urls") String urls,
-            @RequestParam(name = "js", defaultValue = "false") boolean js) throws Exception {
+    public Object getHtml(@RequestParam(name = "urls") String urls,
+            @RequestParam(name = "js", defaultValue = "false") boolean js,
+            @RequestParam(name = "details", defaultValue = "false") boolean details) throws Exception {
         List<String> allUrlsToCrawl = Arrays.asList(urls.split(";"));
 
         Stopwatch stopwatch = Stopwatch.createStarted();
-        Map<String, String> result = delegator.crawl(js, allUrlsToCrawl);
-        LOGGER.info("crawling took {}", stopwatch.stop());
+        BatchResult<String> result = delegator.crawl(js, allUrlsToCrawl);
+        LOGGER.info("crawling took {}, {} urls failed", stopwatch.stop(), result.getFailures().size());
 
-        return result;
+        return details ? result : result.getResults();
     }
 
     @RequestMapping("crawl_processed")
-    public Map<String, ProcessedHtml> getProcessedHtml(@RequestParam(name = "urls") String urls,
-            @RequestParam(name = "js", defaultValue = "false") boolean js) throws Exception {
+    public Object getProcessedHtml(@RequestParam(name = "urls") String urls,
+            @RequestParam(name = "js", defaultValue = "false") boolean js,
+            @RequestParam(name = "details", defaultValue = "false") boolean details) throws Exception {
         List<String> allUrlsToCrawl = Arrays.asList(urls.split(";"));
 
         Stopwatch stopwatch = Stopwatch.createStarted();
-        Map<String, ProcessedHtml> result = delegator.crawlProcessed(js, allUrlsToCrawl);
-        LOGGER.info("crawling took {}", stopwatch.stop());
+        BatchResult<ProcessedHtml> result = delegator.crawlProcessed(js, allUrlsToCrawl);
+        LOGGER.info("crawling took {}, {} urls failed", stopwatch.stop(), result.getFailures().size());
+
+        return details ? result : result.getResults();
+    }
 
-        return result;
+    @RequestMapping("nodes")
+    public Map<String, Object> nodes() {
+        return delegator.stats();
     }
 
 }
@@ -0,0 +1,38 @@
+package crawler;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of a batch together with the reason for every url that has no
+ * result, e.g. because its crawler node failed or timed out.
+ */
+public class BatchResult<E> {
+
+    private final Map<String, E> results = new LinkedHashMap<>();
+    private final Map<String, String> failures = new LinkedHashMap<>();
+
+    public void addResults(Map<String, E> nodeResults) {
+        results.putAll(nodeResults);
+    }
+
+    public void fail(String url, String reason) {
+        failures.put(url, reason);
+    }
+
+    public void fail(Collection<String> urls, String reason) {
+        for (String url : urls) {
+            fail(url, reason);
+        }
+    }
+
+    public Map<String, E> getResults() {
+        return results;
+    }
+
+    public Map<String, String> getFailures() {
+        return failures;
+    }
+
+}
@@ -0,0 +1,80 @@
+package crawler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Consistent hashing of urls to nodes. Every node is put on the ring as
+ * {@code weight * VIRTUAL_NODES_PER_WEIGHT} points, and a url belongs to
+ * the first point clockwise from its hash. When a node is added or removed
+ * only the urls of its points move, about 1/n of all urls, so the caches
+ * of the other nodes stay warm.
+ */
+public class ConsistentHashRing<T> {
+
+    static final int VIRTUAL_NODES_PER_WEIGHT = 160;
+
+    private static final HashFunction HASHING = Hashing.murmur3_128();
+
+    private final NavigableMap<Long, T> ring = new TreeMap<>();
+    private final List<T> nodes = new ArrayList<>();
+    private final Set<String> ids = new HashSet<>();
+
+    /**
+     * @param id identifies the node on the ring, the same id always gets
+     *            the same points, so it must not be added twice
+     */
+    public void add(String id, T node, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight of " + id + " must be positive, got " + weight);
+        }
+        if (!ids.add(id)) {
+            throw new IllegalArgumentException(id + " is already in the ring");
+        }
+
+        int points = weight * VIRTUAL_NODES_PER_WEIGHT;
+        for (int i = 0; i < points; i++) {
+            ring.put(hash(id + "#" + i), node);
+        }
+        nodes.add(node);
+    }
+
+    /**
+     * The key belongs to the first node clockwise from its hash that is
+     * accepted, so the keys of a node that is down are spread over its
+     * neighbours on the ring
+     *
+     * @return empty if no node is accepted
+     */
+    public Optional<T> get(String key, Predicate<T> accept) {
+        long hash = hash(key);
+        Iterable<T> clockwise = Iterables.concat(ring.tailMap(hash, true).values(), ring.headMap(hash, false).values());
+        for (T node : clockwise) {
+            if (accept.test(node)) {
+                return Optional.of(node);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public List<T> nodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    private static long hash(String key) {
+        return HASHING.hashString(key, StandardCharsets.UTF_8).asLong();
+    }
+
+}
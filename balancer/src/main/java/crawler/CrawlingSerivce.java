@@ -1,19 +1,44 @@
 package crawler;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URL;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Collection;
 import java.util.Map;
+import java.util.function.Consumer;
 
-import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
+import crawler.model.ProcessedHtml;
+
+/**
+ * Client of one crawler node. The urls are sent as a json array in the body
+ * of a POST, so the size of a bucket is not limited by the length of the
+ * url, and the json response is parsed while it is read from the connection.
+ * The http client is shared by all the nodes and keeps the connections to
+ * them alive between the calls.
+ * <br>
+ * With {@code smile} the results are asked for in Smile, the binary form of
+ * json, which does not escape the html. The response is parsed according to
+ * its content type, so nodes that only send json are still understood.
+ */
 public class CrawlingSerivce {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CrawlingSerivce.class);
@@ -23,35 +48,100 @@ public class CrawlingSerivce {
     private static final TypeReference<Map<String, ProcessedHtml>> MAP_STRING_PROCESSED_HTML = 
             new TypeReference<Map<String, ProcessedHtml>>(){};
 
+    private static final int PROBE_TIMEOUT = 2000;
+    private static final RequestConfig PROBE_CONFIG = RequestConfig.custom()
+            .setConnectTimeout(PROBE_TIMEOUT)
+            .setSocketTimeout(PROBE_TIMEOUT)
+            .setConnectionRequestTimeout(PROBE_TIMEOUT)
+            .build();
+
+    private static final String SMILE = "application/x-jackson-smile";
+    private static final String ACCEPT_SMILE = SMILE + ", application/json;q=0.5";
+
     private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
     private final String serviceBaseUrl;
+    private final CloseableHttpClient client;
+    private final boolean smile;
 
-    public CrawlingSerivce(String serviceBaseUrl) {
+    public CrawlingSerivce(String serviceBaseUrl, CloseableHttpClient client, boolean smile) {
         this.serviceBaseUrl = serviceBaseUrl;
+        this.client = client;
+        this.smile = smile;
+    }
+
+    public String getBaseUrl() {
+        return serviceBaseUrl;
     }
 
-    public Map<String, String> crawl(boolean js, Collection<String> urls) throws Exception {
+    /**
+     * @param onRequest gets the request before it is sent, it can be aborted
+     *            to stop waiting for the node
+     */
+    public Map<String, String> crawl(boolean js, Collection<String> urls, Consumer<HttpPost> onRequest)
+            throws Exception {
         LOGGER.debug("from {} with js={} crawling {}", serviceBaseUrl, js, urls);
-        String joinedUrls = encode(String.join(";", urls));
-        URL service = new URL(serviceBaseUrl + "/crawl?js=" + js + "&urls=" + joinedUrls);
-        String json = IOUtils.toString(service, StandardCharsets.UTF_8);
-        return mapper.readValue(json, MAP_STRING_STRING);
+        return post("/crawl?js=" + js, urls, MAP_STRING_STRING, onRequest);
     }
 
-    public Map<String, ProcessedHtml> crawlProcessed(boolean js, Collection<String> urls) throws Exception {
+    public Map<String, ProcessedHtml> crawlProcessed(boolean js, Collection<String> urls,
+            Consumer<HttpPost> onRequest) throws Exception {
         LOGGER.debug("from {} with js={} crawling and processing {}", serviceBaseUrl, js, urls);
-        String joinedUrls = encode(String.join(";", urls));
-        URL service = new URL(serviceBaseUrl + "/crawl_processed?js=" + js + "&urls=" + joinedUrls);
-        String json = IOUtils.toString(service, StandardCharsets.UTF_8);
-        return mapper.readValue(json, MAP_STRING_PROCESSED_HTML);
+        return post("/crawl_processed?js=" + js, urls, MAP_STRING_PROCESSED_HTML, onRequest);
+    }
+
+    private <E> Map<String, E> post(String path, Collection<String> urls, TypeReference<Map<String, E>> type,
+            Consumer<HttpPost> onRequest) throws IOException {
+        HttpPost post = new HttpPost(serviceBaseUrl + path);
+        post.setEntity(new ByteArrayEntity(mapper.writeValueAsBytes(urls), ContentType.APPLICATION_JSON));
+        if (smile) {
+            post.setHeader(HttpHeaders.ACCEPT, ACCEPT_SMILE);
+        }
+
+        ResponseHandler<Map<String, E>> handler = response -> {
+            HttpEntity entity = checkStatus(response.getStatusLine().getStatusCode(), response.getEntity());
+            try (InputStream in = entity.getContent()) {
+                return mapperFor(entity).readValue(in, type);
+            }
+        };
+        onRequest.accept(post);
+        return client.execute(post, handler);
     }
 
-    private static String encode(String joinedUrls) {
+    /**
+     * Active health check, used to find out when a node that failed is back
+     */
+    public boolean isHealthy() {
+        HttpGet get = new HttpGet(serviceBaseUrl + "/health");
+        get.setConfig(PROBE_CONFIG);
         try {
-            return URLEncoder.encode(joinedUrls, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e); // cant happen
+            return client.execute(get, response -> {
+                EntityUtils.consume(response.getEntity());
+                return response.getStatusLine().getStatusCode() == HttpStatus.SC_OK;
+            });
+        } catch (IOException e) {
+            LOGGER.debug("health check of {} failed: {}", serviceBaseUrl, e.getMessage());
+            return false;
+        }
+    }
+
+    private ObjectMapper mapperFor(HttpEntity entity) {
+        ContentType contentType = ContentType.get(entity);
+        if (contentType != null && SMILE.equalsIgnoreCase(contentType.getMimeType())) {
+            return smileMapper;
+        }
+        return mapper;
+    }
+
+    private HttpEntity checkStatus(int status, HttpEntity entity) throws IOException {
+        if (status != HttpStatus.SC_OK) {
+            EntityUtils.consume(entity);
+            throw new HttpResponseException(status, serviceBaseUrl + " returned " + status);
+        }
+        if (entity == null) {
+            throw new ClientProtocolException(serviceBaseUrl + " returned no content");
         }
+        return entity;
     }
 
 }
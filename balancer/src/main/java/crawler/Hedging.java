@@ -0,0 +1,155 @@
+package crawler;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+
+/**
+ * Decides when a bucket is sent to a second node: once it has run longer
+ * than the given percentile of the recent latencies of the same kind of
+ * calls. Calls with and without js differ a lot, and so do buckets of a few
+ * and of many urls, so the latencies are kept apart by js and by the size
+ * class of the bucket: 1, 2-3, 4-7, ... urls.
+ * <br>
+ * The number of hedged urls is limited by a budget: every url sent to its
+ * primary node earns {@code budget} of a token, and every hedged url costs
+ * one, so with a budget of at most 1 the load is never more than doubled.
+ * The tokens are capped at {@link #MAX_BURST_BUCKETS} buckets of the typical
+ * size, so a long quiet period does not save up for a burst of hedges.
+ */
+public class Hedging {
+
+    private static final int WINDOW_SIZE = 1000;
+    /** the last class takes all the buckets of 128 urls and more */
+    private static final int SIZE_CLASSES = 8;
+    private static final int MAX_BURST_BUCKETS = 4;
+    private static final double BUCKET_SIZE_SMOOTHING = 0.05;
+
+    private final double percentile;
+    private final double budget;
+    private final int minSamples;
+
+    private final Window[] jsLatencies = windows();
+    private final Window[] noJsLatencies = windows();
+
+    private double tokens = 0;
+    private double typicalBucketSize = 0;
+    private long hedgedUrls = 0;
+    private long deniedUrls = 0;
+
+    /**
+     * @param percentile of the recent latencies after which a bucket is hedged, e.g. 95
+     * @param budget hedged urls per url sent to the primary nodes, between 0 and 1
+     * @param minSamples no hedging until that many latencies are known
+     */
+    public Hedging(double percentile, double budget, int minSamples) {
+        if (percentile <= 0 || percentile > 100) {
+            throw new IllegalArgumentException("percentile must be in (0, 100], got " + percentile);
+        }
+        if (budget < 0 || budget > 1) {
+            throw new IllegalArgumentException("budget must be in [0, 1], got " + budget);
+        }
+        this.percentile = percentile;
+        this.budget = budget;
+        this.minSamples = Math.max(1, minSamples);
+    }
+
+    public void recordLatency(boolean js, int urls, long latency) {
+        window(js, urls).add(latency);
+    }
+
+    /**
+     * @return how long to wait before hedging a bucket of {@code urls},
+     *         empty if too few latencies of such buckets are known yet
+     */
+    public OptionalLong delay(boolean js, int urls) {
+        return window(js, urls).percentile(percentile, minSamples);
+    }
+
+    public synchronized void onRequest(int urls) {
+        if (typicalBucketSize == 0) {
+            typicalBucketSize = urls;
+        } else {
+            typicalBucketSize = typicalBucketSize + BUCKET_SIZE_SMOOTHING * (urls - typicalBucketSize);
+        }
+        tokens = Math.min(MAX_BURST_BUCKETS * typicalBucketSize, tokens + budget * urls);
+    }
+
+    public synchronized boolean tryAcquire(int urls) {
+        if (tokens < urls) {
+            deniedUrls = deniedUrls + urls;
+            return false;
+        }
+        tokens = tokens - urls;
+        hedgedUrls = hedgedUrls + urls;
+        return true;
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hedged.urls", hedgedUrls);
+        stats.put("denied.urls", deniedUrls);
+        stats.put("tokens", Math.round(tokens));
+        stats.put("typical.bucket.urls", Math.round(typicalBucketSize));
+        stats.put("delay.js.ms", delays(jsLatencies));
+        stats.put("delay.nojs.ms", delays(noJsLatencies));
+        return stats;
+    }
+
+    private Map<String, Long> delays(Window[] windows) {
+        Map<String, Long> delays = new LinkedHashMap<>();
+        for (int sizeClass = 0; sizeClass < SIZE_CLASSES; sizeClass++) {
+            OptionalLong delay = windows[sizeClass].percentile(percentile, minSamples);
+            if (delay.isPresent()) {
+                int from = 1 << sizeClass;
+                String urls = sizeClass == SIZE_CLASSES - 1 ? from + "+" : from + "-" + (2 * from - 1);
+                delays.put(from == 1 ? "1" : urls, delay.getAsLong());
+            }
+        }
+        return delays;
+    }
+
+    private Window window(boolean js, int urls) {
+        return (js ? jsLatencies : noJsLatencies)[sizeClass(urls)];
+    }
+
+    static int sizeClass(int urls) {
+        int log2 = 31 - Integer.numberOfLeadingZeros(Math.max(1, urls));
+        return Math.min(log2, SIZE_CLASSES - 1);
+    }
+
+    private static Window[] windows() {
+        Window[] windows = new Window[SIZE_CLASSES];
+        for (int i = 0; i < windows.length; i++) {
+            windows[i] = new Window();
+        }
+        return windows;
+    }
+
+    /**
+     * The last {@link #WINDOW_SIZE} latencies
+     */
+    private static final class Window {
+        private final long[] latencies = new long[WINDOW_SIZE];
+        private int next = 0;
+        private int size = 0;
+
+        synchronized void add(long latency) {
+            latencies[next] = latency;
+            next = (next + 1) % latencies.length;
+            size = Math.min(size + 1, latencies.length);
+        }
+
+        synchronized OptionalLong percentile(double percentile, int minSamples) {
+            if (size < minSamples) {
+                return OptionalLong.empty();
+            }
+            long[] sorted = Arrays.copyOf(latencies, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100 * size) - 1;
+            return OptionalLong.of(sorted[Math.max(0, index)]);
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package crawler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Circuit breaker of one crawler node. After {@code failureThreshold}
+ * failures in a row the circuit opens and the node gets no urls for
+ * {@code openMs}. Then one batch is let through as a trial: if it
+ * succeeds the circuit closes, otherwise it opens again. Only a batch
+ * closes the circuit: a node that answers the active probe may still fail
+ * to crawl, so a healthy probe does no more than end the open period.
+ */
+public class NodeHealth {
+
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN;
+    }
+
+    private final int failureThreshold;
+    private final long openMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    private long openedAt = 0;
+    /** the trial batch of a half open circuit is running */
+    private boolean trial = false;
+
+    private long successes = 0;
+    private long failures = 0;
+    private double latencyMs = 0;
+
+    public NodeHealth(int failureThreshold, long openMs) {
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+    }
+
+    /**
+     * @return true if the node can get urls now. For a node whose circuit
+     *         is open long enough, this lets one caller through as the trial
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        halfOpenIfDue();
+        if (state == State.HALF_OPEN && !trial) {
+            trial = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gives the trial back when the caller that got it sent no urls to the
+     * node, so that the next batch can take it
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            trial = false;
+        }
+    }
+
+    private void halfOpenIfDue() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMs) {
+            state = State.HALF_OPEN;
+            trial = false;
+        }
+    }
+
+    public synchronized void recordSuccess(long latency) {
+        successes++;
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+        trial = false;
+        latencyMs = successes == 1 ? latency : latencyMs + LATENCY_SMOOTHING * (latency - latencyMs);
+    }
+
+    public synchronized void recordFailure() {
+        failures++;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            trial = false;
+        }
+    }
+
+    public synchronized void recordProbe(boolean healthy) {
+        if (healthy) {
+            halfOpenIfDue();
+        } else {
+            recordFailure();
+        }
+    }
+
+    public synchronized Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state.name().toLowerCase());
+        stats.put("successes", successes);
+        stats.put("failures", failures);
+        stats.put("latency.ms", Math.round(latencyMs));
+        return stats;
+    }
+
+}
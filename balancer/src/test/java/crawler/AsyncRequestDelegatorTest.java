@@ -0,0 +1,164 @@
+package crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Stopwatch;
+
+public class AsyncRequestDelegatorTest {
+
+    private static final int TIMEOUT = 300;
+
+    private final List<String> urls = Arrays.asList("http://a.com/1", "http://b.com/2", "http://c.com/3");
+
+    private StubCrawlerNode node;
+    private CloseableHttpClient client;
+    private AsyncRequestDelegator delegator;
+
+    @Before
+    public void start() throws Exception {
+        node = new StubCrawlerNode();
+        client = HttpClients.createDefault();
+
+        ConsistentHashRing<CrawlingSerivce> ring = new ConsistentHashRing<>();
+        ring.add(node.url(), new CrawlingSerivce(node.url(), client, false), 1);
+        delegator = new AsyncRequestDelegator(ring, TIMEOUT, 5, 60000, 60000, Optional.empty());
+    }
+
+    @After
+    public void stop() throws Exception {
+        delegator.close();
+        client.close();
+        node.close();
+    }
+
+    @Test
+    public void crawlsThroughNode() {
+        BatchResult<String> result = delegator.crawl(false, urls);
+
+        assertEquals(3, result.getResults().size());
+        assertEquals(0, result.getFailures().size());
+        assertEquals(1L, nodeStats().get("successes"));
+    }
+
+    @Test
+    public void timeoutCountsAsOneFailure() throws Exception {
+        node.setDelay(1000);
+
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        BatchResult<String> result = delegator.crawl(false, urls);
+
+        assertTrue("took " + stopwatch, stopwatch.elapsed(TimeUnit.MILLISECONDS) < 1000);
+        assertEquals(3, result.getFailures().size());
+        assertTrue(result.getFailures().values().iterator().next().startsWith("timeout"));
+
+        // the node would have answered by now, the aborted call records nothing
+        Thread.sleep(1500);
+        assertEquals(1L, nodeStats().get("failures"));
+        assertEquals(0L, nodeStats().get("successes"));
+    }
+
+    @Test
+    public void hedgeWinsAndSlowCallIsAborted() throws Exception {
+        try (StubCrawlerNode other = new StubCrawlerNode()) {
+            Map<CrawlingSerivce, StubCrawlerNode> nodes = new IdentityHashMap<>();
+            ConsistentHashRing<CrawlingSerivce> ring = ring(nodes, node, other);
+            StubCrawlerNode slow = nodes.get(ring.get(urls.get(0), s -> true).get());
+            slow.setDelay(1000);
+
+            Hedging hedging = hedging();
+            try (AsyncRequestDelegator hedged = new AsyncRequestDelegator(ring, 2000, 5, 60000, 60000,
+                    Optional.of(hedging))) {
+                Stopwatch stopwatch = Stopwatch.createStarted();
+                BatchResult<String> result = hedged.crawl(false, urls);
+
+                assertTrue("took " + stopwatch, stopwatch.elapsed(TimeUnit.MILLISECONDS) < 1000);
+                assertEquals(3, result.getResults().size());
+                assertEquals(0, result.getFailures().size());
+                assertTrue(hedging.stats().toString(), (Long) hedging.stats().get("hedged.urls") > 0);
+
+                // the slow node would have answered by now, losing to the hedge is no failure
+                Thread.sleep(1500);
+                Map<String, Object> slowStats = nodeStats(hedged, slow);
+                assertEquals(slowStats.toString(), 0L, slowStats.get("failures"));
+                assertEquals(slowStats.toString(), 0L, slowStats.get("successes"));
+            }
+        }
+    }
+
+    @Test
+    public void halfOpenNodeLosingToHedgeIsTriedAgain() throws Exception {
+        try (StubCrawlerNode other = new StubCrawlerNode()) {
+            Map<CrawlingSerivce, StubCrawlerNode> nodes = new IdentityHashMap<>();
+            ConsistentHashRing<CrawlingSerivce> ring = ring(nodes, node, other);
+            StubCrawlerNode slow = nodes.get(ring.get(urls.get(0), s -> true).get());
+
+            try (AsyncRequestDelegator hedged = new AsyncRequestDelegator(ring, 2000, 1, 200, 60000,
+                    Optional.of(hedging()))) {
+                slow.setStatus(500);
+                hedged.crawl(false, urls);
+                assertEquals("open", nodeStats(hedged, slow).get("state"));
+
+                // the trial batch of the half open node loses to the hedge
+                slow.setStatus(200);
+                slow.setDelay(1000);
+                Thread.sleep(300);
+                BatchResult<String> result = hedged.crawl(false, urls);
+                assertEquals(3, result.getResults().size());
+                assertEquals("half_open", nodeStats(hedged, slow).get("state"));
+
+                Thread.sleep(1200);
+                slow.setDelay(0);
+                result = hedged.crawl(false, urls);
+
+                Map<String, Object> slowStats = nodeStats(hedged, slow);
+                assertEquals(3, result.getResults().size());
+                assertEquals(slowStats.toString(), "closed", slowStats.get("state"));
+                assertEquals(slowStats.toString(), 1L, slowStats.get("successes"));
+            }
+        }
+    }
+
+    private ConsistentHashRing<CrawlingSerivce> ring(Map<CrawlingSerivce, StubCrawlerNode> nodes,
+            StubCrawlerNode... stubs) {
+        ConsistentHashRing<CrawlingSerivce> ring = new ConsistentHashRing<>();
+        for (StubCrawlerNode stub : stubs) {
+            CrawlingSerivce service = new CrawlingSerivce(stub.url(), client, false);
+            ring.add(stub.url(), service, 1);
+            nodes.put(service, stub);
+        }
+        return ring;
+    }
+
+    /** hedges any bucket that takes longer than 50 ms */
+    private Hedging hedging() {
+        Hedging hedging = new Hedging(95, 1, 1);
+        for (int size = 1; size <= urls.size(); size++) {
+            hedging.recordLatency(false, size, 50);
+        }
+        return hedging;
+    }
+
+    private Map<String, Object> nodeStats() {
+        return nodeStats(delegator, node);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> nodeStats(AsyncRequestDelegator delegator, StubCrawlerNode node) {
+        return (Map<String, Object>) delegator.stats().get(node.url());
+    }
+
+}
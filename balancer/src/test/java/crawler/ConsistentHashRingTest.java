@@ -0,0 +1,126 @@
+package crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.Test;
+
+/**
+ * Simulates the routing of many urls over the ring: how evenly they are
+ * spread, and how many move when the nodes change.
+ */
+public class ConsistentHashRingTest {
+
+    private static final int URLS = 100_000;
+    private static final int NODES = 10;
+
+    @Test
+    public void spreadsUrlsEvenly() {
+        ConsistentHashRing<String> ring = ring(NODES);
+
+        Map<String, Integer> load = load(ring);
+
+        double mean = (double) URLS / NODES;
+        int max = load.values().stream().mapToInt(Integer::intValue).max().getAsInt();
+        int min = load.values().stream().mapToInt(Integer::intValue).min().getAsInt();
+        assertEquals(NODES, load.size());
+        assertTrue("max " + max + " of mean " + mean, max < mean * 1.25);
+        assertTrue("min " + min + " of mean " + mean, min > mean * 0.75);
+    }
+
+    @Test
+    public void givesUrlsByWeight() {
+        ConsistentHashRing<String> ring = ring(NODES);
+        ring.add("heavy", "heavy", 2);
+
+        Map<String, Integer> load = load(ring);
+
+        double mean = (double) URLS / (NODES + 2);
+        int heavy = load.get("heavy");
+        assertTrue("heavy " + heavy + " of mean " + mean, heavy > mean * 1.5 && heavy < mean * 2.5);
+    }
+
+    @Test
+    public void addedNodeTakesItsShareFromOthers() {
+        ConsistentHashRing<String> before = ring(NODES);
+        ConsistentHashRing<String> after = ring(NODES);
+        after.add("new", "new", 1);
+
+        int moved = 0;
+        for (int i = 0; i < URLS; i++) {
+            String url = url(i);
+            String was = route(before, url);
+            String is = route(after, url);
+            if (!was.equals(is)) {
+                moved++;
+                assertEquals(url + " moved between old nodes", "new", is);
+            }
+        }
+
+        double expected = (double) URLS / (NODES + 1);
+        assertTrue("moved " + moved + ", expected about " + expected,
+                moved > expected * 0.75 && moved < expected * 1.25);
+    }
+
+    @Test
+    public void urlsOfSkippedNodeSpreadOverOthers() {
+        ConsistentHashRing<String> ring = ring(NODES);
+        String down = "node-3";
+
+        Map<String, Integer> takenOver = new HashMap<>();
+        for (int i = 0; i < URLS; i++) {
+            String url = url(i);
+            String owner = route(ring, url);
+            String failover = ring.get(url, node -> !node.equals(down)).get();
+            if (owner.equals(down)) {
+                takenOver.merge(failover, 1, Integer::sum);
+            } else {
+                assertEquals(url + " moved off a healthy node", owner, failover);
+            }
+        }
+
+        // the points of the node are spread over the ring, so are its urls
+        assertEquals(takenOver.toString(), NODES - 1, takenOver.size());
+    }
+
+    @Test
+    public void noNodeAccepted() {
+        assertEquals(Optional.empty(), ring(NODES).get(url(0), node -> false));
+        assertEquals(Optional.empty(), new ConsistentHashRing<String>().get(url(0), node -> true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDuplicateAddress() {
+        ConsistentHashRing<String> ring = ring(2);
+        ring.add("node-1", "node-1 again", 1);
+    }
+
+    private static ConsistentHashRing<String> ring(int nodes) {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>();
+        for (int i = 0; i < nodes; i++) {
+            ring.add("node-" + i, "node-" + i, 1);
+        }
+        return ring;
+    }
+
+    private static Map<String, Integer> load(ConsistentHashRing<String> ring) {
+        Map<String, Integer> load = new HashMap<>();
+        for (int i = 0; i < URLS; i++) {
+            load.merge(route(ring, url(i)), 1, Integer::sum);
+        }
+        return load;
+    }
+
+    private static String route(ConsistentHashRing<String> ring, String url) {
+        return ring.get(url, node -> true).get();
+    }
+
+    private static String url(int i) {
+        return "http://host" + (i % 1000) + ".com/page/" + i;
+    }
+
+}
@@ -0,0 +1,58 @@
+package crawler;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CrawlingSerivceTest {
+
+    /** longer than the 56 bytes of a short field name in Smile */
+    private static final List<String> URLS = Arrays.asList(
+            "http://example.com/a",
+            "http://example.com/docs/output/commands/a-rather-long-path-of-a-page.html",
+            "http://example.com/search?q=" + String.join("+", "a long query with many words".split(" "))
+                    + "&page=2&sort=relevance");
+
+    private StubCrawlerNode node;
+    private CloseableHttpClient client;
+
+    @Before
+    public void start() throws Exception {
+        node = new StubCrawlerNode();
+        client = HttpClients.createDefault();
+    }
+
+    @After
+    public void stop() throws Exception {
+        client.close();
+        node.close();
+    }
+
+    @Test
+    public void readsJson() throws Exception {
+        assertCrawlsAll(new CrawlingSerivce(node.url(), client, false));
+    }
+
+    @Test
+    public void readsSmileWithLongUrls() throws Exception {
+        assertCrawlsAll(new CrawlingSerivce(node.url(), client, true));
+    }
+
+    private static void assertCrawlsAll(CrawlingSerivce service) throws Exception {
+        Map<String, String> pages = service.crawl(false, URLS, request -> {});
+
+        assertEquals(URLS.size(), pages.size());
+        for (String url : URLS) {
+            assertEquals("<html><body>" + url + "</body></html>", pages.get(url));
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.OptionalLong;
+
+import org.junit.Test;
+
+public class HedgingTest {
+
+    @Test
+    public void tokensAreCappedByTypicalBucket() {
+        Hedging hedging = new Hedging(95, 1, 1);
+        for (int i = 0; i < 1000; i++) {
+            hedging.onRequest(10);
+        }
+
+        // a quiet period saves up for a few buckets only
+        assertEquals(40L, hedging.stats().get("tokens"));
+        assertTrue(hedging.tryAcquire(40));
+        assertFalse(hedging.tryAcquire(1));
+    }
+
+    @Test
+    public void budgetLimitsHedgedUrls() {
+        Hedging hedging = new Hedging(95, 0.1, 1);
+        for (int i = 0; i < 10; i++) {
+            hedging.onRequest(10);
+        }
+
+        assertTrue(hedging.tryAcquire(10));
+        assertFalse(hedging.tryAcquire(1));
+        assertEquals(10L, hedging.stats().get("hedged.urls"));
+        assertEquals(1L, hedging.stats().get("denied.urls"));
+    }
+
+    @Test
+    public void latenciesAreKeptBySize() {
+        Hedging hedging = new Hedging(50, 1, 10);
+        for (int i = 0; i < 10; i++) {
+            hedging.recordLatency(false, 1, 100);
+            hedging.recordLatency(false, 50, 3000);
+        }
+
+        assertEquals(OptionalLong.of(100), hedging.delay(false, 1));
+        assertEquals(OptionalLong.of(3000), hedging.delay(false, 40));
+        assertEquals(OptionalLong.empty(), hedging.delay(false, 8));
+        assertEquals(OptionalLong.empty(), hedging.delay(true, 1));
+    }
+
+    @Test
+    public void sizeClassesDoubleUpToLast() {
+        assertEquals(0, Hedging.sizeClass(0));
+        assertEquals(0, Hedging.sizeClass(1));
+        assertEquals(1, Hedging.sizeClass(3));
+        assertEquals(2, Hedging.sizeClass(4));
+        assertEquals(6, Hedging.sizeClass(127));
+        assertEquals(7, Hedging.sizeClass(128));
+        assertEquals(7, Hedging.sizeClass(100_000));
+    }
+
+}
@@ -0,0 +1,83 @@
+package crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class NodeHealthTest {
+
+    private static final long OPEN_MS = 100;
+
+    @Test
+    public void opensAfterFailuresInRow() {
+        NodeHealth health = new NodeHealth(3, OPEN_MS);
+        health.recordFailure();
+        health.recordFailure();
+        assertTrue(health.tryAcquire());
+
+        health.recordFailure();
+        assertFalse(health.tryAcquire());
+        assertEquals("open", health.stats().get("state"));
+    }
+
+    @Test
+    public void healthyProbeDoesNotClose() throws Exception {
+        NodeHealth health = open();
+
+        health.recordProbe(true);
+        assertEquals("open", health.stats().get("state"));
+        assertFalse(health.tryAcquire());
+
+        Thread.sleep(OPEN_MS);
+        health.recordProbe(true);
+        assertEquals("half_open", health.stats().get("state"));
+        health.recordProbe(true);
+        assertEquals("half_open", health.stats().get("state"));
+    }
+
+    @Test
+    public void onlySuccessfulTrialCloses() throws Exception {
+        NodeHealth health = open();
+        Thread.sleep(OPEN_MS);
+
+        assertTrue(health.tryAcquire());
+        // one trial at a time
+        assertFalse(health.tryAcquire());
+
+        health.recordSuccess(10);
+        assertEquals("closed", health.stats().get("state"));
+        assertTrue(health.tryAcquire());
+    }
+
+    @Test
+    public void failedTrialOpensAgain() throws Exception {
+        NodeHealth health = open();
+        Thread.sleep(OPEN_MS);
+
+        assertTrue(health.tryAcquire());
+        health.recordFailure();
+
+        assertEquals("open", health.stats().get("state"));
+        assertFalse(health.tryAcquire());
+    }
+
+    @Test
+    public void unusedTrialIsGivenBack() throws Exception {
+        NodeHealth health = open();
+        Thread.sleep(OPEN_MS);
+
+        assertTrue(health.tryAcquire());
+        health.release();
+
+        assertTrue(health.tryAcquire());
+    }
+
+    private static NodeHealth open() {
+        NodeHealth health = new NodeHealth(1, OPEN_MS);
+        health.recordFailure();
+        return health;
+    }
+
+}
@@ -0,0 +1,112 @@
+package crawler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local crawler node for the tests: /crawl answers with a page for every
+ * url of the posted json array after {@link #setDelay} ms, in Smile if the
+ * client accepts it, or with {@link #setStatus} if it is not 200. /health
+ * always answers 200.
+ */
+public class StubCrawlerNode implements AutoCloseable {
+
+    private static final TypeReference<List<String>> LIST_STRING = new TypeReference<List<String>>() {};
+
+    private static final String SMILE = "application/x-jackson-smile";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile long delay = 0;
+    private volatile int status = 200;
+
+    public StubCrawlerNode() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 100);
+        server.setExecutor(executor);
+        server.createContext("/crawl", this::crawl);
+        server.createContext("/health", this::health);
+        server.start();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public int requests() {
+        return requests.get();
+    }
+
+    private void crawl(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try (InputStream in = exchange.getRequestBody()) {
+            List<String> urls = mapper.readValue(in, LIST_STRING);
+            Thread.sleep(delay);
+            if (status != 200) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+
+            Map<String, String> pages = new LinkedHashMap<>();
+            for (String url : urls) {
+                pages.put(url, "<html><body>" + url + "</body></html>");
+            }
+            String accept = exchange.getRequestHeaders().getFirst("Accept");
+            if (accept != null && accept.contains(SMILE)) {
+                send(exchange, SMILE, smileMapper.writeValueAsBytes(pages));
+            } else {
+                send(exchange, "application/json", mapper.writeValueAsBytes(pages));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // the balancer has gone, e.g. after a timeout
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void health(HttpExchange exchange) throws IOException {
+        send(exchange, "application/json", new byte[0]);
+        exchange.close();
+    }
+
+    private static void send(HttpExchange exchange, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+}
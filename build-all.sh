@@ -1,5 +1,10 @@
 #!/bin/bash
 
+cd model
+./build.sh
+
+cd ..
+
 cd crawler
 ./build.sh
 
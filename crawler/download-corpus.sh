@@ -0,0 +1,25 @@
+#!/bin/bash
+# html pages for the benchmarks in src/test, run them with -Dcorpus=corpus
+mkdir -p corpus
+cd corpus
+
+i=0
+for url in \
+    https://en.wikipedia.org/wiki/Web_crawler \
+    https://en.wikipedia.org/wiki/Java_(programming_language) \
+    https://en.wikipedia.org/wiki/Hypertext_Transfer_Protocol \
+    https://stackoverflow.com/questions \
+    https://news.ycombinator.com/ \
+    https://github.com/explore \
+    https://www.bbc.com/news \
+    https://www.theguardian.com/international \
+    https://docs.oracle.com/javase/8/docs/api/java/util/concurrent/ConcurrentHashMap.html \
+    https://spring.io/projects/spring-boot \
+    https://www.reddit.com/r/programming/ \
+    https://developer.mozilla.org/en-US/docs/Web/HTML/Element \
+    https://www.amazon.com/ \
+    https://www.imdb.com/chart/top/ \
+    https://www.nytimes.com/ ; do
+  i=$((i+1))
+  wget -q -O page-$i.html "$url"
+done
@@ -1,7 +1,10 @@
 package crawler;
 
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Named;
 
@@ -9,10 +12,20 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import crawler.crawlers.AdaptiveCrawler;
+import crawler.crawlers.AsyncHttpCrawler;
+import crawler.crawlers.CacheSettings;
 import crawler.crawlers.CachingCrawler;
+import crawler.crawlers.CompressingSerializer.Codec;
 import crawler.crawlers.Crawler;
+import crawler.crawlers.DriverPoolSettings;
 import crawler.crawlers.HttpComponentsCrawler;
+import crawler.crawlers.PageReadiness;
 import crawler.crawlers.PhantomJsCrawler;
+import crawler.crawlers.PoliteCrawler;
+import crawler.crawlers.ResourceBlocking;
+import crawler.process.HtmlProcessor;
+import crawler.process.ProcessingCache;
 
 @Configuration
 public class CrawlerContainer {
@@ -22,26 +35,151 @@ public class CrawlerContainer {
         return Executors.newFixedThreadPool(numThreads);
     }
 
-    @Bean(name = "jsCrawler")
-    public Crawler jsCrawler(
+    @Bean(name = "politenessExecutor")
+    public ExecutorService politenessExecutor(@Value("${crawler.politeness.threads}") int numThreads) {
+        return Executors.newFixedThreadPool(numThreads);
+    }
+
+    /**
+     * Cleans and processes the crawled pages. When the queue is full the
+     * crawling thread that delivered the page processes it itself, which
+     * slows down crawling until the pool catches up.
+     */
+    @Bean(name = "processingExecutor")
+    public ExecutorService processingExecutor(@Value("${crawler.processing.threads}") int numThreads,
+            @Value("${crawler.processing.queue}") int queueSize) {
+        int threads = numThreads > 0 ? numThreads : Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Runs the crawls of the streaming requests, while the threads of the
+     * requests write the crawled pages out.
+     */
+    @Bean(name = "streamingExecutor")
+    public ExecutorService streamingExecutor() {
+        return Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Runs the crawls that js=auto sends to the browser, next to the static
+     * crawl of the batch. PhantomJS crawls at most this many pages at once.
+     */
+    @Bean(name = "escalationExecutor")
+    public ExecutorService escalationExecutor(@Value("${crawler.js.phantomjs.instances}") int phantomJsInstances) {
+        return Executors.newFixedThreadPool(phantomJsInstances);
+    }
+
+    @Bean
+    public CacheSettings cacheSettings(
+            @Value("${crawler.cache.memory.mb}") long memoryCacheMb,
+            @Value("${crawler.cache.codec}") String codec,
+            @Value("${crawler.cache.mmap}") boolean mmap,
+            @Value("${crawler.cache.segments}") int segments,
+            @Value("${crawler.cache.write.behind}") boolean writeBehind,
+            @Value("${crawler.cache.write.behind.queue}") int writeBehindQueue,
+            @Value("${crawler.cache.revalidation.window.hours}") int revalidationWindow,
+            @Value("${crawler.cache.stale.max.hours}") int maxStale,
+            @Value("${crawler.cache.stale.refresh.threads}") int refreshThreads) {
+        CacheSettings settings = new CacheSettings();
+        settings.setMemoryBytes(memoryCacheMb * 1024 * 1024);
+        settings.setCodec(Codec.valueOf(codec.toUpperCase()));
+        settings.setMmap(mmap);
+        settings.setSegments(segments);
+        settings.setWriteBehind(writeBehind);
+        settings.setWriteBehindQueue(writeBehindQueue);
+        settings.setRevalidationWindowHours(revalidationWindow);
+        settings.setMaxStaleHours(maxStale);
+        settings.setRefreshThreads(refreshThreads);
+        return settings;
+    }
+
+    @Bean
+    public ProcessingCache processingCache(HtmlProcessor htmlProcessor,
+            @Value("${crawler.processing.cache.mb}") long cacheMb) {
+        return new ProcessingCache(htmlProcessor, cacheMb * 1024 * 1024);
+    }
+
+    @Bean
+    public PhantomJsCrawler phantomJsCrawler(
             @Named("crawlingExecutor") ExecutorService executor,
             @Value("${crawler.js.phantomjs.bin}") String phantomJsPath,
             @Value("${crawler.js.phantomjs.instances}") int phantomJsInstances,
             @Value("${crawler.js.timeout}") int timeOut, 
             @Value("${crawler.js.sleep}") int waitingTime,
-            @Value("${crawler.js.cache.ttl.hours}") int cacheTtl) {
+            @Value("${crawler.js.phantomjs.max.pages}") int maxPages,
+            @Value("${crawler.js.phantomjs.max.age.minutes}") int maxAge,
+            @Value("${crawler.js.phantomjs.idle.eviction.minutes}") int idleEviction,
+            @Value("${crawler.js.phantomjs.warm.up}") int warmUp,
+            @Value("${crawler.js.readiness}") String readiness,
+            @Value("${crawler.js.readiness.selector:}") String readinessSelector,
+            @Value("${crawler.js.block.types:}") String blockedTypes,
+            @Value("${crawler.js.block.domains:}") String blockedDomains) {
+        DriverPoolSettings settings = new DriverPoolSettings();
+        settings.setMaxPagesPerDriver(maxPages);
+        settings.setMaxAgeMinutes(maxAge);
+        settings.setIdleEvictionMinutes(idleEviction);
+        settings.setWarmUp(warmUp);
+
         PhantomJsCrawler.setPhantomJsPathToBin(phantomJsPath);
-        PhantomJsCrawler crawler = new PhantomJsCrawler(phantomJsInstances, timeOut, waitingTime, executor);
-        return new CachingCrawler(crawler, "phantomjs", cacheTtl);
+        return new PhantomJsCrawler(phantomJsInstances, timeOut, waitingTime, executor, settings,
+                PageReadiness.of(readiness, readinessSelector), ResourceBlocking.of(blockedTypes, blockedDomains));
+    }
+
+    @Bean(name = "jsCrawler")
+    public CachingCrawler jsCrawler(
+            PhantomJsCrawler crawler,
+            @Named("politenessExecutor") ExecutorService politenessExecutor,
+            @Value("${crawler.politeness.per.host}") int maxPerHost,
+            @Value("${crawler.politeness.delay.ms}") long delay,
+            @Value("${crawler.politeness.max.wait.ms}") long maxWait,
+            @Value("${crawler.js.cache.ttl.hours}") int cacheTtl,
+            CacheSettings cacheSettings) {
+        PoliteCrawler polite = new PoliteCrawler(crawler, politenessExecutor, maxPerHost, delay, maxWait);
+        return new CachingCrawler(polite, "phantomjs", cacheTtl, cacheSettings);
     }
 
     @Bean(name = "noJsCrawler")
-    public Crawler noJsCrawler(
+    public CachingCrawler noJsCrawler(
             @Named("crawlingExecutor") ExecutorService executor,
+            @Named("politenessExecutor") ExecutorService politenessExecutor,
+            @Value("${crawler.threads}") int numThreads,
+            @Value("${crawler.politeness.per.host}") int maxPerHost,
+            @Value("${crawler.politeness.delay.ms}") long delay,
+            @Value("${crawler.politeness.max.wait.ms}") long maxWait,
+            @Value("${crawler.java.engine}") String engine,
+            @Value("${crawler.java.async.connections}") int maxConnections,
             @Value("${crawler.java.timeout}") int timeOut, 
-            @Value("${crawler.java.cache.ttl.hours}") int cacheTtl) {
-        HttpComponentsCrawler crawler = new HttpComponentsCrawler(timeOut, executor);
-        return new CachingCrawler(crawler, "java", cacheTtl);
+            @Value("${crawler.java.max.kb}") int maxKb,
+            @Value("${crawler.java.cache.ttl.hours}") int cacheTtl,
+            CacheSettings cacheSettings) {
+        Crawler crawler = javaCrawler(engine, executor, timeOut, maxPerHost, 
+                "async".equals(engine) ? maxConnections : numThreads, maxKb * 1024);
+        PoliteCrawler polite = new PoliteCrawler(crawler, politenessExecutor, maxPerHost, delay, maxWait);
+        return new CachingCrawler(polite, "java", cacheTtl, cacheSettings);
+    }
+
+    @Bean(name = "autoCrawler")
+    public AdaptiveCrawler autoCrawler(
+            @Named("noJsCrawler") CachingCrawler noJsCrawler,
+            @Named("jsCrawler") CachingCrawler jsCrawler,
+            @Named("escalationExecutor") ExecutorService executor,
+            @Value("${crawler.auto.decision.ttl.hours}") int decisionTtl,
+            @Value("${crawler.auto.min.samples}") int minSamples,
+            @Value("${crawler.auto.js.ratio}") double jsRatio) {
+        return new AdaptiveCrawler(noJsCrawler, jsCrawler, executor, decisionTtl, minSamples, jsRatio);
+    }
+
+    private static Crawler javaCrawler(String engine, ExecutorService executor, int timeOut, int maxPerHost,
+            int maxConnections, int maxBytes) {
+        if ("async".equals(engine)) {
+            return new AsyncHttpCrawler(timeOut, maxPerHost, maxConnections, maxBytes);
+        }
+        if ("blocking".equals(engine)) {
+            return new HttpComponentsCrawler(timeOut, maxPerHost, maxConnections, maxBytes, executor);
+        }
+        throw new IllegalArgumentException("unknown crawler.java.engine: " + engine);
     }
 
 }
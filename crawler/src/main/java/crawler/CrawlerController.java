@@ -1,95 +1,286 @@
 package crawler;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import javax.inject.Named;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.Futures;
 
+import crawler.crawlers.AdaptiveCrawler;
 import crawler.crawlers.Crawler;
-import crawler.process.HtmlProcessor;
-import crawler.process.ProcessedHtml;
+import crawler.crawlers.Page;
+import crawler.model.ProcessedHtml;
+import crawler.process.ProcessingCache;
 
 @RestController
 public class CrawlerController {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CrawlerController.class);
 
+    private static final String NDJSON = "application/x-ndjson";
+    private static final byte[] END_OF_STREAM = new byte[0];
+    /** pages of a stream that are crawled but not yet written to the client */
+    private static final int STREAM_BUFFER_PAGES = 64;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
     private final Crawler jsCrawler;
     private final Crawler noJsCrawler;
-    private final HtmlProcessor htmlProcessor;
+    private final Crawler autoCrawler;
+    private final ProcessingCache processingCache;
+    private final ExecutorService processingExecutor;
+    private final ExecutorService streamingExecutor;
 
     @Autowired
-    public CrawlerController(@Named("jsCrawler") Crawler jsCrawler, @Named("noJsCrawler") Crawler noJsCrawler,
-            HtmlProcessor htmlProcessor) {
+    public CrawlerController(@Named("jsCrawler") Crawler jsCrawler,
+            @Named("noJsCrawler") Crawler noJsCrawler,
+            @Named("autoCrawler") Crawler autoCrawler,
+            ProcessingCache processingCache,
+            @Named("processingExecutor") ExecutorService processingExecutor,
+            @Named("streamingExecutor") ExecutorService streamingExecutor) {
         this.jsCrawler = jsCrawler;
         this.noJsCrawler = noJsCrawler;
-        this.htmlProcessor = htmlProcessor;
+        this.autoCrawler = autoCrawler;
+        this.processingCache = processingCache;
+        this.processingExecutor = processingExecutor;
+        this.streamingExecutor = streamingExecutor;
     }
 
     @RequestMapping("crawl")
     public Map<String, String> getHtml(@RequestParam(name = "urls") String urls,
-            @RequestParam(name = "js", defaultValue = "false") boolean js) throws Exception {
+            @RequestParam(name = "js", defaultValue = "false") String js) throws Exception {
+        return crawlHtml(js, Arrays.asList(urls.split(";")));
+    }
+
+    /**
+     * Same as {@link #getHtml}, but the urls are a json array in the body, so
+     * their number is not limited by the length of the request url
+     */
+    @RequestMapping(value = "crawl", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, String> postHtml(@RequestBody List<String> urls,
+            @RequestParam(name = "js", defaultValue = "false") String js) throws Exception {
+        return crawlHtml(js, urls);
+    }
+
+    private Map<String, String> crawlHtml(String js, List<String> toCrawl) {
         Stopwatch stopwatch = Stopwatch.createStarted();
-        List<String> toCrawl = Arrays.asList(urls.split(";"));
 
         LOGGER.info("with js={} crawling {}", js, toCrawl);
 
-        Map<String, String> result = html(js, toCrawl);
-        result = clean(result);
+        Map<String, String> result = new ConcurrentHashMap<>();
+        crawlAndProcess(js, toCrawl, page -> {
+            String html = processingCache.clean(page.getUrl(), page.getHtml());
+            result.put(page.getUrl(), html);
+        });
 
         LOGGER.info("crawling took {}", stopwatch.stop());
         return result;
     }
 
-    private Map<String, String> clean(Map<String, String> rawhtml) {
-        Map<String, String> result = new HashMap<>(rawhtml.size());
-        for (Entry<String, String> e : rawhtml.entrySet()) {
-            String url = e.getKey();
-            String html = htmlProcessor.clean(e.getValue());
-            result.put(url, html);
-        }
-        return result;
-    }
-
     @RequestMapping("crawl_processed")
     public Map<String, ProcessedHtml> getProcessed(@RequestParam(name = "urls") String urls,
-            @RequestParam(name = "js", defaultValue = "false") boolean js) throws Exception {
+            @RequestParam(name = "js", defaultValue = "false") String js) throws Exception {
+        return crawlProcessed(js, Arrays.asList(urls.split(";")));
+    }
+
+    @RequestMapping(value = "crawl_processed", method = RequestMethod.POST, consumes = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, ProcessedHtml> postProcessed(@RequestBody List<String> urls,
+            @RequestParam(name = "js", defaultValue = "false") String js) throws Exception {
+        return crawlProcessed(js, urls);
+    }
+
+    private Map<String, ProcessedHtml> crawlProcessed(String js, List<String> toCrawl) {
         Stopwatch stopwatch = Stopwatch.createStarted();
-        List<String> toCrawl = Arrays.asList(urls.split(";"));
 
         LOGGER.info("with js={} crawling {}", js, toCrawl);
 
-        Map<String, String> htmls = html(js, toCrawl);
-        Map<String, ProcessedHtml> result = new HashMap<>();
-
-        for (Entry<String, String> e : htmls.entrySet()) {
-            String url = e.getKey();
-            String html = e.getValue();
-            ProcessedHtml processed = htmlProcessor.process(html);
-            result.put(url, processed);
-        }
+        Map<String, ProcessedHtml> result = new ConcurrentHashMap<>();
+        crawlAndProcess(js, toCrawl, page -> {
+            ProcessedHtml processed = processingCache.process(page.getUrl(), page.getHtml());
+            result.put(page.getUrl(), processed);
+        });
 
         LOGGER.info("crawling took {}", stopwatch.stop());
         return result;
     }
 
-    private Map<String, String> html(boolean js, List<String> toCrawl) {
-        if (js) {
-            return jsCrawler.crawl(toCrawl);
+    @RequestMapping(value = "crawl_stream", produces = NDJSON)
+    public StreamingResponseBody streamHtml(@RequestParam(name = "urls") String urls,
+            @RequestParam(name = "js", defaultValue = "false") String js) throws Exception {
+        List<String> toCrawl = Arrays.asList(urls.split(";"));
+        LOGGER.info("with js={} streaming {}", js, toCrawl);
+
+        return out -> stream(js, toCrawl, out,
+                page -> record(page, "html", processingCache.clean(page.getUrl(), page.getHtml())));
+    }
+
+    @RequestMapping(value = "crawl_processed_stream", produces = NDJSON)
+    public StreamingResponseBody streamProcessed(@RequestParam(name = "urls") String urls,
+            @RequestParam(name = "js", defaultValue = "false") String js) throws Exception {
+        List<String> toCrawl = Arrays.asList(urls.split(";"));
+        LOGGER.info("with js={} streaming {}", js, toCrawl);
+
+        return out -> stream(js, toCrawl, out,
+                page -> record(page, "processed", processingCache.process(page.getUrl(), page.getHtml())));
+    }
+
+    /**
+     * The pages are crawled and turned into json lines on the pools, the
+     * lines are written by the thread of the request, so a slow client does
+     * not hold up the processing threads. At most
+     * {@link #STREAM_BUFFER_PAGES} pages are held between the crawl and the
+     * client: when they are all waiting, the crawl waits for the client. If
+     * the client goes away, the crawl is cancelled.
+     */
+    private void stream(String js, List<String> toCrawl, OutputStream out, Function<Page, Object> toRecord)
+            throws IOException {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+
+        Semaphore buffered = new Semaphore(STREAM_BUFFER_PAGES);
+        BlockingQueue<byte[]> lines = new ArrayBlockingQueue<>(STREAM_BUFFER_PAGES + 1);
+        Future<?> crawling = streamingExecutor.submit(() -> {
+            try {
+                crawlAndProcess(js, toCrawl, page -> acquire(buffered), page -> {
+                    try {
+                        lines.add(toJson(toRecord.apply(page)));
+                    } catch (RuntimeException e) {
+                        buffered.release();
+                        throw e;
+                    }
+                });
+            } finally {
+                lines.add(END_OF_STREAM);
+            }
+        });
+
+        boolean written = false;
+        try {
+            byte[] line = lines.take();
+            while (line != END_OF_STREAM) {
+                out.write(line);
+                out.write('\n');
+                buffered.release();
+                // the lines that are ready are sent together
+                if (lines.isEmpty()) {
+                    out.flush();
+                }
+                line = lines.take();
+            }
+            out.flush();
+            written = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while streaming");
+        } finally {
+            if (!written) {
+                LOGGER.info("the client of the stream is gone, cancelling the crawl");
+                crawling.cancel(true);
+            }
+        }
+
+        Futures.getUnchecked(crawling);
+        LOGGER.info("streaming took {}", stopwatch.stop());
+    }
+
+    /**
+     * Waits for a free place in the stream buffer, the crawl is cancelled if
+     * its thread is interrupted meanwhile
+     */
+    private static void acquire(Semaphore buffered) {
+        try {
+            buffered.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("the stream is cancelled");
+        }
+    }
+
+    private void crawlAndProcess(String js, List<String> toCrawl, Consumer<Page> processing) {
+        crawlAndProcess(js, toCrawl, page -> {}, processing);
+    }
+
+    /**
+     * Every page is handed over to the processing pool as soon as it is
+     * crawled, so processing overlaps with the fetches that are still in
+     * flight. {@code onCrawled} runs on the crawling thread before that, and
+     * can hold the crawl back by blocking. Returns when all the pages are
+     * crawled and processed.
+     */
+    private void crawlAndProcess(String js, List<String> toCrawl, Consumer<Page> onCrawled,
+            Consumer<Page> processing) {
+        List<CompletableFuture<Void>> tasks = Collections.synchronizedList(new ArrayList<>(toCrawl.size()));
+        try {
+            crawler(js).crawl(toCrawl, page -> {
+                onCrawled.accept(page);
+                tasks.add(CompletableFuture.runAsync(() -> processing.accept(page), processingExecutor));
+            });
+        } finally {
+            CompletableFuture<?>[] all = tasks.toArray(new CompletableFuture<?>[0]);
+            CompletableFuture.allOf(all).join();
+        }
+    }
+
+    private static Map<String, Object> record(Page page, String field, Object value) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("url", page.getUrl());
+        record.put(field, value);
+        if (page.isStale()) {
+            record.put("stale", true);
+        }
+        return record;
+    }
+
+    private byte[] toJson(Object record) {
+        try {
+            return mapper.writeValueAsBytes(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param js true, false or auto, to let {@link AdaptiveCrawler} decide
+     */
+    private Crawler crawler(String js) {
+        if ("auto".equalsIgnoreCase(js)) {
+            return autoCrawler;
+        }
+        if (Boolean.parseBoolean(js)) {
+            return jsCrawler;
         } else {
-            return  noJsCrawler.crawl(toCrawl);
+            return noJsCrawler;
         }
     }
 
@@ -0,0 +1,36 @@
+package crawler;
+
+import java.util.List;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Lets the clients that send {@code Accept: application/x-jackson-smile} get
+ * the results in Smile, the binary form of json. Strings are written as they
+ * are, without escaping, so multi-MB pages are cheaper to encode and decode.
+ * The converter goes after the json one, so json stays the default.
+ */
+@Configuration
+public class SmileConfiguration extends WebMvcConfigurerAdapter {
+
+    public static final MediaType SMILE = new MediaType("application", "x-jackson-smile");
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new SmileHttpMessageConverter());
+    }
+
+    private static class SmileHttpMessageConverter extends AbstractJackson2HttpMessageConverter {
+        SmileHttpMessageConverter() {
+            super(new ObjectMapper(new SmileFactory()), SMILE);
+        }
+    }
+
+}
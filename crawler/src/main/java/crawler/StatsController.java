@@ -0,0 +1,54 @@
+package crawler;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import crawler.crawlers.AdaptiveCrawler;
+import crawler.crawlers.CachingCrawler;
+import crawler.crawlers.PhantomJsCrawler;
+import crawler.process.ProcessingCache;
+
+@RestController
+public class StatsController {
+
+    private final List<CachingCrawler> caches;
+    private final ProcessingCache processingCache;
+    private final PhantomJsCrawler phantomJsCrawler;
+    private final AdaptiveCrawler autoCrawler;
+
+    @Autowired
+    public StatsController(List<CachingCrawler> caches, ProcessingCache processingCache,
+            PhantomJsCrawler phantomJsCrawler, AdaptiveCrawler autoCrawler) {
+        this.caches = caches;
+        this.processingCache = processingCache;
+        this.phantomJsCrawler = phantomJsCrawler;
+        this.autoCrawler = autoCrawler;
+    }
+
+    @RequestMapping("stats")
+    public Map<String, Object> stats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (CachingCrawler cache : caches) {
+            result.put("cache." + cache.getName(), cache.stats());
+        }
+        result.put("processing", processingCache.stats());
+        result.put("phantomjs", phantomJsCrawler.stats());
+        result.put("auto", autoCrawler.stats());
+        return result;
+    }
+
+    /**
+     * Liveness check for the balancer
+     */
+    @RequestMapping("health")
+    public Map<String, Object> health() {
+        return Collections.singletonMap("status", "up");
+    }
+
+}
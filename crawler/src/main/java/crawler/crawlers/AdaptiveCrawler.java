@@ -0,0 +1,288 @@
+package crawler.crawlers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.select.Elements;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Crawls the urls without a browser first and sends them to the JS crawler
+ * only when the static html looks like it needs JavaScript to render: the
+ * body has almost no text, it is an empty SPA root, or it asks to enable
+ * JavaScript. Such a page is sent to the JS crawler as soon as it is
+ * detected, while the rest of the batch is still crawled.
+ * <br>
+ * The distinct urls seen are counted per host. Once at least
+ * {@code minSamples} urls of a host were crawled and at least
+ * {@code jsRatio} of them needed JavaScript, later urls of the host go to
+ * the browser directly, until the decision expires after
+ * {@code decisionTtlHours} and the host is sampled again. A single short
+ * page, such as an error or a redirect page, does not decide for the whole
+ * host, however often it is requested.
+ * <br>
+ * A page served again from the cache of the static crawler, recognized by
+ * its fetch time, is not parsed again: the decision made when it was
+ * fetched is reused. If the JS crawler fails on an escalated page, the
+ * static html is returned instead.
+ */
+public class AdaptiveCrawler implements Crawler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveCrawler.class);
+
+    private static final int MIN_TEXT_LENGTH = 250;
+    private static final int NOSCRIPT_HINT_TEXT_LENGTH = 1000;
+    /** enough to decide for a host, the urls beyond it are not counted */
+    private static final int MAX_SAMPLES_PER_HOST = 100;
+    private static final int MAX_ENTRIES = 100_000;
+
+    private static final Pattern EMPTY_SPA_ROOT = Pattern.compile(
+            "<(div|app-root)[^>]*\\bid\\s*=\\s*[\"']?(root|app|__next|__nuxt|main)[\"']?[^>]*>\\s*</\\1>"
+                    + "|<app-root[^>]*>\\s*</app-root>",
+            Pattern.CASE_INSENSITIVE);
+
+    private final Crawler staticCrawler;
+    private final Crawler jsCrawler;
+    /** runs the crawls of the JS crawler while the static crawl goes on */
+    private final ExecutorService executor;
+    private final int minSamples;
+    private final double jsRatio;
+    private final Cache<String, HostSamples> samplesByHost;
+    private final Cache<String, Decision> decisionsByUrl;
+
+    private final AtomicLong staticPages = new AtomicLong();
+    private final AtomicLong escalatedPages = new AtomicLong();
+    private final AtomicLong jsPages = new AtomicLong();
+    private final AtomicLong fallbackPages = new AtomicLong();
+
+    public AdaptiveCrawler(Crawler staticCrawler, Crawler jsCrawler, ExecutorService executor,
+            int decisionTtlHours, int minSamples, double jsRatio) {
+        this.staticCrawler = staticCrawler;
+        this.jsCrawler = jsCrawler;
+        this.executor = executor;
+        this.minSamples = minSamples;
+        this.jsRatio = jsRatio;
+        this.samplesByHost = CacheBuilder.newBuilder()
+                .maximumSize(MAX_ENTRIES)
+                .expireAfterWrite(decisionTtlHours, TimeUnit.HOURS)
+                .build();
+        this.decisionsByUrl = CacheBuilder.newBuilder()
+                .maximumSize(MAX_ENTRIES)
+                .expireAfterWrite(decisionTtlHours, TimeUnit.HOURS)
+                .build();
+    }
+
+    @Override
+    public Optional<String> crawl(String url) {
+        if (hostNeedsJs(url)) {
+            jsPages.incrementAndGet();
+            return jsCrawler.crawl(url);
+        }
+
+        Optional<String> html = staticCrawler.crawl(url);
+        if (html.isPresent() && decide(new Page(url, html.get()))) {
+            escalatedPages.incrementAndGet();
+            Optional<String> rendered = jsCrawler.crawl(url);
+            if (!rendered.isPresent()) {
+                fallbackPages.incrementAndGet();
+                return html;
+            }
+            return rendered;
+        }
+        staticPages.incrementAndGet();
+        return html;
+    }
+
+    @Override
+    public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+        List<String> toStatic = new ArrayList<>();
+        List<String> toJs = new ArrayList<>();
+        for (String url : urls) {
+            if (hostNeedsJs(url)) {
+                toJs.add(url);
+            } else {
+                toStatic.add(url);
+            }
+        }
+
+        Queue<CompletableFuture<Void>> jsCrawls = new ConcurrentLinkedQueue<>();
+        if (!toJs.isEmpty()) {
+            jsPages.addAndGet(toJs.size());
+            jsCrawls.add(crawlWithJs(toJs, callback));
+        }
+
+        try {
+            if (!toStatic.isEmpty()) {
+                staticCrawler.crawl(toStatic, previous, page -> {
+                    if (decide(page)) {
+                        escalatedPages.incrementAndGet();
+                        jsCrawls.add(escalate(page, callback));
+                    } else {
+                        staticPages.incrementAndGet();
+                        callback.accept(page);
+                    }
+                });
+            }
+
+            for (CompletableFuture<Void> jsCrawl : jsCrawls) {
+                await(jsCrawl);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            jsCrawls.forEach(jsCrawl -> jsCrawl.cancel(true));
+        }
+    }
+
+    private CompletableFuture<Void> crawlWithJs(List<String> urls, Consumer<Page> callback) {
+        return CompletableFuture.runAsync(() -> jsCrawler.crawl(urls, callback), executor);
+    }
+
+    /**
+     * Crawls the page with the JS crawler, or passes the static page to the
+     * callback if the JS crawler fails or returns nothing
+     */
+    private CompletableFuture<Void> escalate(Page staticPage, Consumer<Page> callback) {
+        AtomicBoolean rendered = new AtomicBoolean();
+        return CompletableFuture.runAsync(() -> {
+            try {
+                jsCrawler.crawl(Collections.singletonList(staticPage.getUrl()), page -> {
+                    rendered.set(true);
+                    callback.accept(page);
+                });
+            } finally {
+                if (!rendered.get()) {
+                    LOGGER.debug("js crawl of {} returned nothing, returning its static html", staticPage.getUrl());
+                    fallbackPages.incrementAndGet();
+                    callback.accept(staticPage);
+                }
+            }
+        }, executor);
+    }
+
+    private static void await(CompletableFuture<Void> jsCrawl) throws InterruptedException {
+        try {
+            jsCrawl.get();
+        } catch (ExecutionException e) {
+            LOGGER.warn("js crawl failed", e.getCause());
+        }
+    }
+
+    private boolean hostNeedsJs(String url) {
+        HostSamples samples = samplesByHost.getIfPresent(Urls.host(url));
+        return samples != null && samples.needJs(minSamples, jsRatio);
+    }
+
+    /**
+     * @return true if the page needs JavaScript. A page fetched anew is
+     *         parsed and counted for its host, a page seen before is not
+     */
+    private boolean decide(Page page) {
+        String url = page.getUrl();
+        Decision previous = decisionsByUrl.getIfPresent(url);
+        if (previous != null && previous.fetchedAt == page.getFetchedAt()) {
+            return previous.needsJs;
+        }
+
+        boolean needsJs = needsJs(page.getHtml());
+        if (needsJs) {
+            LOGGER.debug("{} needs javascript", url);
+        }
+        decisionsByUrl.put(url, new Decision(page.getFetchedAt(), needsJs));
+        samplesByHost.asMap().computeIfAbsent(Urls.host(url), host -> new HostSamples()).add(url, needsJs);
+        return needsJs;
+    }
+
+    static boolean needsJs(String html) {
+        if (EMPTY_SPA_ROOT.matcher(html).find()) {
+            return true;
+        }
+
+        Document doc = Jsoup.parse(html);
+        Elements noscript = doc.select("noscript");
+        boolean noscriptHint = noscript.text().toLowerCase(Locale.ENGLISH).contains("javascript");
+        noscript.remove();
+        doc.select("script, style, template").remove();
+
+        int textLength = doc.body().text().length();
+        if (textLength < MIN_TEXT_LENGTH) {
+            return true;
+        }
+
+        // a page that asks to enable javascript and has little text is most likely a shell
+        return noscriptHint && textLength < NOSCRIPT_HINT_TEXT_LENGTH;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("static", staticPages.get());
+        stats.put("escalated", escalatedPages.get());
+        stats.put("js", jsPages.get());
+        stats.put("fallbacks", fallbackPages.get());
+        stats.put("hosts", samplesByHost.size());
+        return stats;
+    }
+
+    /**
+     * The distinct urls of a host crawled without a browser, and how many of
+     * them needed JavaScript the last time they were fetched
+     */
+    private static final class HostSamples {
+        private final Map<String, Boolean> needsJsByUrl = new HashMap<>();
+        private int jsPages = 0;
+
+        synchronized void add(String url, boolean needsJs) {
+            if (!needsJsByUrl.containsKey(url) && needsJsByUrl.size() >= MAX_SAMPLES_PER_HOST) {
+                return;
+            }
+            Boolean previous = needsJsByUrl.put(url, needsJs);
+            if (Boolean.TRUE.equals(previous)) {
+                jsPages--;
+            }
+            if (needsJs) {
+                jsPages++;
+            }
+        }
+
+        synchronized boolean needJs(int minSamples, double jsRatio) {
+            int pages = needsJsByUrl.size();
+            return pages >= minSamples && jsPages >= jsRatio * pages;
+        }
+    }
+
+    /**
+     * Whether the page of a url fetched at a given time needs JavaScript
+     */
+    private static final class Decision {
+        private final long fetchedAt;
+        private final boolean needsJs;
+
+        Decision(long fetchedAt, boolean needsJs) {
+            this.fetchedAt = fetchedAt;
+            this.needsJs = needsJs;
+        }
+    }
+
+}
@@ -0,0 +1,24 @@
+package crawler.crawlers;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Crawler that can start the fetch of a url without blocking the caller, so
+ * a scheduler like {@link PoliteCrawler} does not need a thread for every
+ * url in flight.
+ */
+public interface AsyncCrawler extends Crawler {
+
+    /**
+     * Starts crawling the url and returns at once. The future completes with
+     * the page, or empty if the url could not be crawled or timed out, it
+     * does not complete exceptionally. The future may complete on an
+     * internal thread of the crawler, so dependent actions must be quick.
+     *
+     * @param previous previously crawled page for a conditional request, or
+     *            null
+     */
+    CompletableFuture<Optional<Page>> crawlAsync(String url, Page previous);
+
+}
@@ -0,0 +1,188 @@
+package crawler.crawlers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.client.LaxRedirectStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Crawler on top of the non-blocking HttpAsyncClient: all the urls of a batch
+ * are sent at once and multiplexed over a few I/O reactor threads, so the
+ * number of fetches in flight is bounded only by the connection pool, not by
+ * the number of threads.
+ */
+public class AsyncHttpCrawler implements AsyncCrawler, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncHttpCrawler.class);
+
+    private final int timeout;
+    private final int maxBytes;
+    private final CloseableHttpAsyncClient client;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+    public AsyncHttpCrawler(int timeout, int maxConnections) {
+        this(timeout, maxConnections, maxConnections, HttpPages.DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxBytes responses larger than that are dropped without being
+     *            read in full
+     */
+    public AsyncHttpCrawler(int timeout, int maxConnectionsPerHost, int maxConnections, int maxBytes) {
+        this.timeout = timeout;
+        this.maxBytes = maxBytes;
+        this.client = createHttpClient(timeout, maxConnectionsPerHost, maxConnections);
+        this.client.start();
+    }
+
+    private static CloseableHttpAsyncClient createHttpClient(int timeout, int maxConnectionsPerHost,
+            int maxConnections) {
+        try {
+            SSLContextBuilder sslCtx = SSLContextBuilder.create();
+            sslCtx.loadTrustMaterial(null, (c, t) -> true);
+            SSLContext sslContext = sslCtx.build();
+
+            IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                    .setIoThreadCount(Runtime.getRuntime().availableProcessors())
+                    .setConnectTimeout(timeout)
+                    .setSoTimeout(timeout)
+                    .build();
+
+            RequestConfig requestConfig = RequestConfig.custom()
+                    .setConnectTimeout(timeout)
+                    .setSocketTimeout(timeout)
+                    .setConnectionRequestTimeout(timeout)
+                    .build();
+
+            HttpAsyncClientBuilder builder = HttpAsyncClients.custom();
+            builder.setRedirectStrategy(new LaxRedirectStrategy());
+            builder.setSSLContext(sslContext);
+            builder.setDefaultIOReactorConfig(reactorConfig);
+            builder.setDefaultRequestConfig(requestConfig);
+            builder.setMaxConnTotal(maxConnections);
+            builder.setMaxConnPerRoute(maxConnectionsPerHost);
+            builder.setUserAgent("Mozilla/5.0 (X11; Ubuntu; Linux x86_64; rv:47.0) Gecko/20100101 Firefox/47.0");
+            return builder.build();
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+        Batches.crawl(this, urls, previous, callback, timeout);
+    }
+
+    @Override
+    public Optional<String> crawl(String url) {
+        try {
+            return crawlAsync(url, null).get().map(Page::getHtml);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.warn("unexpected error happened while crawling " + url, e);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * The request is cancelled when it takes longer than the timeout
+     */
+    @Override
+    public CompletableFuture<Optional<Page>> crawlAsync(String url, Page previous) {
+        CompletableFuture<Optional<Page>> result = new CompletableFuture<>();
+        HttpGet get;
+        try {
+            get = new HttpGet(url);
+        } catch (IllegalArgumentException e) {
+            LOGGER.info("malformed url {}: {}", url, e.getMessage());
+            result.complete(Optional.empty());
+            return result;
+        }
+
+        HttpPages.addValidators(get, previous);
+        LimitedResponseConsumer consumer = new LimitedResponseConsumer(url, maxBytes);
+        PageCallback callback = new PageCallback(url, previous, maxBytes, result);
+        Future<HttpResponse> future = client.execute(HttpAsyncMethods.create(get), consumer, callback);
+
+        ScheduledFuture<?> watchdog = timer.schedule(() -> {
+            LOGGER.debug("time out for {}", url);
+            future.cancel(true);
+        }, timeout, TimeUnit.MILLISECONDS);
+        result.whenComplete((page, e) -> watchdog.cancel(false));
+        // cancelling the result, e.g. when the batch times out, cancels the request
+        result.whenComplete((page, e) -> {
+            if (result.isCancelled()) {
+                future.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private static final class PageCallback implements FutureCallback<HttpResponse> {
+        private final String url;
+        private final Page previous;
+        private final int maxBytes;
+        private final CompletableFuture<Optional<Page>> result;
+
+        private PageCallback(String url, Page previous, int maxBytes, CompletableFuture<Optional<Page>> result) {
+            this.url = url;
+            this.previous = previous;
+            this.maxBytes = maxBytes;
+            this.result = result;
+        }
+
+        @Override
+        public void completed(HttpResponse response) {
+            try {
+                result.complete(HttpPages.toPage(url, response, previous, maxBytes));
+            } catch (Exception e) {
+                LOGGER.warn("unexpected error happened while reading " + url, e);
+                result.complete(Optional.empty());
+            }
+        }
+
+        @Override
+        public void failed(Exception e) {
+            LOGGER.debug("execution exception for {}: {}", url, e.getMessage());
+            result.complete(Optional.empty());
+        }
+
+        @Override
+        public void cancelled() {
+            result.complete(Optional.empty());
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        timer.shutdownNow();
+        client.close();
+    }
+
+}
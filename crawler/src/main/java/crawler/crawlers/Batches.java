@@ -0,0 +1,65 @@
+package crawler.crawlers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fans a batch out over the fetches of an {@link AsyncCrawler}, shared by
+ * the crawlers that fetch every url on its own.
+ */
+final class Batches {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Batches.class);
+
+    private Batches() {
+    }
+
+    /**
+     * Starts the fetches of all the urls, every fetch puts its result to a
+     * queue, and the calling thread hands them over to the callback in the
+     * order they complete. The batch waits at most {@code timeout} ms from
+     * the moment the fetches are submitted, so the time a fetch waits for a
+     * thread or a driver counts as well. The fetches not done by then are
+     * cancelled, those not started yet never start.
+     */
+    static void crawl(AsyncCrawler crawler, List<String> urls, Map<String, Page> previous, Consumer<Page> callback,
+            long timeout) {
+        BlockingQueue<Optional<Page>> completed = new LinkedBlockingQueue<>();
+        List<CompletableFuture<Optional<Page>>> futures = new ArrayList<>(urls.size());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        for (String url : urls) {
+            CompletableFuture<Optional<Page>> future = crawler.crawlAsync(url, previous.get(url));
+            future.thenAccept(completed::add);
+            futures.add(future);
+        }
+
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                long remaining = deadline - System.nanoTime();
+                Optional<Page> page = completed.poll(remaining, TimeUnit.NANOSECONDS);
+                if (page == null) {
+                    LOGGER.debug("time out for {} urls of the batch", futures.size() - i);
+                    break;
+                }
+                if (page.isPresent()) {
+                    callback.accept(page.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            futures.forEach(f -> f.cancel(true));
+        }
+    }
+
+}
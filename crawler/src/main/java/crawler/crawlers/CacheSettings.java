@@ -0,0 +1,97 @@
+package crawler.crawlers;
+
+import crawler.crawlers.CompressingSerializer.Codec;
+
+/**
+ * Storage settings of {@link CachingCrawler}, shared by all the caches of the
+ * application.
+ */
+public class CacheSettings {
+
+    private long memoryBytes = 64 * 1024 * 1024;
+    private Codec codec = Codec.LZ4;
+    private boolean mmap = false;
+    private int segments = 8;
+    private boolean writeBehind = false;
+    private int writeBehindQueue = 10000;
+    private int revalidationWindowHours = 7 * 24;
+    private int maxStaleHours = 0;
+    private int refreshThreads = 2;
+
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public void setMemoryBytes(long memoryBytes) {
+        this.memoryBytes = memoryBytes;
+    }
+
+    public Codec getCodec() {
+        return codec;
+    }
+
+    public void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    public boolean isMmap() {
+        return mmap;
+    }
+
+    public void setMmap(boolean mmap) {
+        this.mmap = mmap;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    public void setSegments(int segments) {
+        this.segments = segments;
+    }
+
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    public int getWriteBehindQueue() {
+        return writeBehindQueue;
+    }
+
+    public void setWriteBehindQueue(int writeBehindQueue) {
+        this.writeBehindQueue = writeBehindQueue;
+    }
+
+    public int getRevalidationWindowHours() {
+        return revalidationWindowHours;
+    }
+
+    public void setRevalidationWindowHours(int revalidationWindowHours) {
+        this.revalidationWindowHours = revalidationWindowHours;
+    }
+
+    /**
+     * @return for how long after the TTL an expired page is still served
+     *         while it is refreshed in background; 0 turns stale-while-revalidate off
+     */
+    public int getMaxStaleHours() {
+        return maxStaleHours;
+    }
+
+    public void setMaxStaleHours(int maxStaleHours) {
+        this.maxStaleHours = maxStaleHours;
+    }
+
+    public int getRefreshThreads() {
+        return refreshThreads;
+    }
+
+    public void setRefreshThreads(int refreshThreads) {
+        this.refreshThreads = refreshThreads;
+    }
+
+}
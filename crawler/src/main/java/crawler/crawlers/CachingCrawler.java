@@ -3,111 +3,397 @@ package crawler.crawlers;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
-import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
 public class CachingCrawler implements Crawler, AutoCloseable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(CachingCrawler.class);
 
     private static final int MINIMAL_HTML_LEN_FOR_CACHING = 200;
+    private static final int HTREE_DIR_SIZE = 16;
+    private static final int HTREE_LEVELS = 4;
+    private static final int REFRESH_QUEUE_SIZE = 1000;
+    /** bump it when the layout of the stored pages changes */
+    private static final int FORMAT = 1;
 
     private final Crawler crawler;
+    private final String name;
+    private final long timeToLiveMs;
+    private final long maxStaleMs;
 
-    private final Map<String, String> cache;
+    private final Cache<String, Page> memoryCache;
+    private final Map<String, Page> cache;
     private final DB db;
+    private final Optional<ExecutorService> writeBehind;
+    private final Optional<ExecutorService> refresher;
+    private final ConcurrentMap<String, CompletableFuture<Optional<Page>>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong memoryMisses = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong diskMisses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
 
     public CachingCrawler(Crawler crawler, String cacheName, int timeToLive) {
+        this(crawler, cacheName, timeToLive, new CacheSettings());
+    }
+
+    public CachingCrawler(Crawler crawler, String cacheName, int timeToLive, CacheSettings settings) {
         this.crawler = crawler;
+        this.name = cacheName;
+        this.timeToLiveMs = TimeUnit.HOURS.toMillis(timeToLive);
+        this.maxStaleMs = TimeUnit.HOURS.toMillis(settings.getMaxStaleHours());
+
+        // expired pages are kept for a while longer, so they can be revalidated with a conditional request
+        // or served stale
+        int keepHours = timeToLive + Math.max(settings.getRevalidationWindowHours(), settings.getMaxStaleHours());
 
-        this.db = makeDb(cacheName);
-        this.cache = createUrlMapDatabase(this.db, timeToLive);
+        this.memoryCache = createMemoryCache(settings.getMemoryBytes(), keepHours);
+        this.db = makeDb(cacheName, settings);
+        this.cache = createUrlMapDatabase(this.db, keepHours, settings);
+        this.writeBehind = createWriteBehindExecutor(settings);
+        this.refresher = createRefreshExecutor(settings);
     }
 
     @Override
-    public Map<String, String> crawl(List<String> urls) {
+    public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
         List<String> cacheMisses = new ArrayList<>();
-        Map<String, String> results = new HashMap<>();
+        Map<String, Page> expired = new HashMap<>(previous);
+        Map<String, Page> stale = new HashMap<>();
 
         for (String url : urls) {
-            Optional<String> hit = htmlIfCached(url);
-            if (hit.isPresent()) {
-                results.put(url, hit.get());
+            Optional<Page> hit = pageIfCached(url);
+            if (!hit.isPresent()) {
+                cacheMisses.add(url);
+                continue;
+            }
+
+            Page page = hit.get();
+            if (isFresh(page)) {
+                callback.accept(page);
+            } else if (canServeStale(page)) {
+                LOGGER.debug("serving stale page of {} while refreshing it", url);
+                staleHits.incrementAndGet();
+                callback.accept(page.asStale());
+                stale.put(url, page);
             } else {
+                LOGGER.debug("cached page of {} is expired", url);
                 cacheMisses.add(url);
+                if (page.hasValidators()) {
+                    expired.put(url, page);
+                }
             }
         }
 
+        if (!stale.isEmpty()) {
+            refreshInBackground(stale);
+        }
+
         if (cacheMisses.isEmpty()) {
-            return results;
+            return;
+        }
+
+        // concurrent misses for the same url share one fetch: the first caller crawls it,
+        // the others wait for its result
+        Map<String, CompletableFuture<Optional<Page>>> owned = new HashMap<>();
+        Map<String, CompletableFuture<Optional<Page>>> joined = new LinkedHashMap<>();
+        register(cacheMisses, owned, joined);
+
+        if (!owned.isEmpty()) {
+            crawlOwned(owned, expired, callback);
+        }
+
+        for (CompletableFuture<Optional<Page>> future : joined.values()) {
+            Optional<Page> page = future.join();
+            if (page.isPresent()) {
+                callback.accept(page.get());
+            }
         }
+    }
 
-        Map<String, String> missingResults = crawler.crawl(cacheMisses);
-        for (Entry<String, String> e : missingResults.entrySet()) {
-            cache(e.getKey(), e.getValue());
+    private void register(Iterable<String> urls, Map<String, CompletableFuture<Optional<Page>>> owned,
+            Map<String, CompletableFuture<Optional<Page>>> joined) {
+        for (String url : urls) {
+            CompletableFuture<Optional<Page>> future = new CompletableFuture<>();
+            CompletableFuture<Optional<Page>> existing = inFlight.putIfAbsent(url, future);
+            if (existing == null) {
+                owned.put(url, future);
+            } else {
+                LOGGER.debug("{} is already being crawled, waiting for it", url);
+                joined.put(url, existing);
+            }
+        }
+    }
+
+    private void refreshInBackground(Map<String, Page> stale) {
+        try {
+            refresher.get().execute(() -> refresh(stale));
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("the refresh queue is full, {} stale pages are not refreshed now", stale.size());
+        }
+    }
+
+    private void refresh(Map<String, Page> stale) {
+        // a refresh queued before an earlier one finished would fetch the page again
+        List<String> urls = new ArrayList<>();
+        for (String url : stale.keySet()) {
+            if (!isRefreshed(url)) {
+                urls.add(url);
+            }
+        }
+
+        Map<String, CompletableFuture<Optional<Page>>> owned = new HashMap<>();
+        // the urls that are already being crawled by someone else will be refreshed by them
+        register(urls, owned, new HashMap<>());
+        if (owned.isEmpty()) {
+            return;
+        }
+
+        Map<String, Page> expired = new HashMap<>();
+        for (String url : owned.keySet()) {
+            Page page = stale.get(url);
+            if (page.hasValidators()) {
+                expired.put(url, page);
+            }
+        }
+
+        crawlOwned(owned, expired, page -> {});
+    }
+
+    private void crawlOwned(Map<String, CompletableFuture<Optional<Page>>> owned, Map<String, Page> expired,
+            Consumer<Page> callback) {
+        try {
+            List<String> urls = new ArrayList<>(owned.keySet());
+            revalidations.addAndGet(expired.size());
+            crawler.crawl(urls, expired, page -> {
+                cache(page);
+                complete(page.getUrl(), owned.get(page.getUrl()), Optional.of(page));
+                callback.accept(page);
+            });
+        } finally {
+            for (Entry<String, CompletableFuture<Optional<Page>>> e : owned.entrySet()) {
+                complete(e.getKey(), e.getValue(), Optional.empty());
+            }
         }
+    }
 
-        results.putAll(missingResults);
-        return results;
+    private void complete(String url, CompletableFuture<Optional<Page>> future, Optional<Page> page) {
+        if (future == null) {
+            return;
+        }
+        future.complete(page);
+        inFlight.remove(url, future);
     }
 
     @Override
     public Optional<String> crawl(String url) {
         Optional<String> result = crawler.crawl(url);
         if (result.isPresent()) {
-            cache(url, result.get());
+            cache(new Page(url, result.get()));
             return result;
         }
 
         return Optional.empty();
     }
 
-    private Optional<String> htmlIfCached(String url) {
-        if (cache.containsKey(url)) {
-            LOGGER.debug("cache hit for url {}", url);
-            String html = cache.get(url);
-            return Optional.of(html);
+    private boolean isFresh(Page page) {
+        return System.currentTimeMillis() - page.getFetchedAt() < timeToLiveMs;
+    }
+
+    private boolean canServeStale(Page page) {
+        return refresher.isPresent() && System.currentTimeMillis() - page.getFetchedAt() < timeToLiveMs + maxStaleMs;
+    }
+
+    private boolean isRefreshed(String url) {
+        Page page = memoryCache.getIfPresent(url);
+        if (page == null) {
+            page = cache.get(url);
+        }
+        return page != null && isFresh(page);
+    }
+
+    private Optional<Page> pageIfCached(String url) {
+        Page page = memoryCache.getIfPresent(url);
+        if (page != null) {
+            LOGGER.debug("memory cache hit for url {}", url);
+            memoryHits.incrementAndGet();
+            return Optional.of(page);
         }
+        memoryMisses.incrementAndGet();
+
+        page = cache.get(url);
+        if (page != null) {
+            LOGGER.debug("disk cache hit for url {}", url);
+            diskHits.incrementAndGet();
+            memoryCache.put(url, page);
+            return Optional.of(page);
+        }
+        diskMisses.incrementAndGet();
 
         return Optional.empty();
     }
 
-    private void cache(String url, String html) {
-        if (html.length() < MINIMAL_HTML_LEN_FOR_CACHING) {
+    private void cache(Page page) {
+        String url = page.getUrl();
+        if (page.getHtml().length() < MINIMAL_HTML_LEN_FOR_CACHING) {
             LOGGER.debug("the content of {} is too small to put into cache - probably a crawling error", url);
             return;
         }
 
-        cache.put(url, html);
+        memoryCache.put(url, page);
+
+        if (writeBehind.isPresent()) {
+            // the page is already served from memory, so it can reach the disk later
+            writeBehind.get().execute(() -> cache.put(url, page));
+        } else {
+            cache.put(url, page);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return hit and miss counters of the memory and the disk tiers. The disk
+     *         tier is only queried on a memory miss
+     */
+    public Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("memory.hits", memoryHits.get());
+        stats.put("memory.misses", memoryMisses.get());
+        stats.put("memory.entries", memoryCache.size());
+        stats.put("disk.hits", diskHits.get());
+        stats.put("disk.misses", diskMisses.get());
+        stats.put("revalidations", revalidations.get());
+        stats.put("stale.hits", staleHits.get());
+        return stats;
     }
 
     @Override
     public void close() throws Exception {
+        if (refresher.isPresent()) {
+            refresher.get().shutdownNow();
+        }
+        if (writeBehind.isPresent()) {
+            writeBehind.get().shutdown();
+            writeBehind.get().awaitTermination(1, TimeUnit.MINUTES);
+        }
         db.close();
     }
 
-    private static DB makeDb(String cacheName) {
+    /**
+     * The in-heap tier in front of MapDB. It is bounded by the approximate
+     * size of the cached pages in bytes, not by the number of entries.
+     */
+    private static Cache<String, Page> createMemoryCache(long maxBytes, int keepHours) {
+        Weigher<String, Page> weigher = (url, page) -> 2 * (url.length() + page.getHtml().length());
+        return CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(weigher)
+                .expireAfterWrite(keepHours, TimeUnit.HOURS)
+                .build();
+    }
+
+    private static DB makeDb(String cacheName, CacheSettings settings) {
         File dir = new File("cache/");
         dir.mkdir();
 
         File dbFile = new File(dir, cacheName + ".db");
-        return DBMaker.fileDB(dbFile).closeOnJvmShutdown().make();
+        DB db = openDb(dbFile, settings);
+
+        // MapDB cannot delete a named map, so the maps of an older format would stay in the file
+        // forever: the file is recreated instead
+        if (db.getAllNames().iterator().hasNext() && formatOf(db) != FORMAT) {
+            LOGGER.info("the cache {} has pages in an older format, dropping it", dbFile);
+            db.close();
+            dbFile.delete();
+            db = openDb(dbFile, settings);
+        }
+
+        db.atomicInteger("format").createOrOpen().set(FORMAT);
+        return db;
     }
 
-    private static Map<String, String> createUrlMapDatabase(DB db, int timeToLive) {
-        HTreeMap<?, ?> htreeMap = db.hashMap("urls").expireAfterCreate(timeToLive, TimeUnit.HOURS).createOrOpen();
-        @SuppressWarnings("unchecked")
-        Map<String, String> map = (Map<String, String>) htreeMap;
-        return map;
+    private static DB openDb(File dbFile, CacheSettings settings) {
+        DBMaker.Maker maker = DBMaker.fileDB(dbFile).closeOnJvmShutdown();
+        maker = maker.concurrencyScale(settings.getSegments());
+        if (settings.isMmap()) {
+            maker = maker.fileMmapEnableIfSupported();
+        }
+        return maker.make();
+    }
+
+    private static int formatOf(DB db) {
+        if (!db.exists("format")) {
+            return 0;
+        }
+        return db.atomicInteger("format").open().get();
+    }
+
+    private static Map<String, Page> createUrlMapDatabase(DB db, int keepHours, CacheSettings settings) {
+        PageSerializer serializer = new PageSerializer(new CompressingSerializer(settings.getCodec()));
+        return db.hashMap("validated_pages")
+                .keySerializer(Serializer.STRING)
+                .valueSerializer(serializer)
+                .layout(settings.getSegments(), HTREE_DIR_SIZE, HTREE_LEVELS)
+                .expireAfterCreate(keepHours, TimeUnit.HOURS)
+                .expireAfterUpdate(keepHours, TimeUnit.HOURS)
+                .createOrOpen();
+    }
+
+    private static Optional<ExecutorService> createWriteBehindExecutor(CacheSettings settings) {
+        if (!settings.isWriteBehind()) {
+            return Optional.empty();
+        }
+
+        // when the disk cannot keep up, the crawling thread writes the page itself
+        BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(settings.getWriteBehindQueue());
+        ExecutorService executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, queue,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        return Optional.of(executor);
+    }
+
+    /**
+     * The refreshes have their own small pool: a refresh waits for the crawl
+     * to finish, so running it on the crawling pool would block the threads
+     * that the crawl itself needs.
+     */
+    private static Optional<ExecutorService> createRefreshExecutor(CacheSettings settings) {
+        if (settings.getMaxStaleHours() <= 0) {
+            return Optional.empty();
+        }
+
+        int threads = settings.getRefreshThreads();
+        BlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(REFRESH_QUEUE_SIZE);
+        ExecutorService executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue);
+        return Optional.of(executor);
     }
 
 }
@@ -0,0 +1,117 @@
+package crawler.crawlers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.Serializer;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * MapDB value serializer that stores strings as compressed UTF-8. Every
+ * value is prefixed with the codec it was written with, so switching the
+ * codec does not invalidate the entries that are already in the cache.
+ */
+public class CompressingSerializer implements Serializer<String> {
+
+    public enum Codec {
+        NONE, DEFLATE, LZ4;
+    }
+
+    private static final LZ4Factory LZ4 = LZ4Factory.fastestInstance();
+
+    private final Codec codec;
+
+    public CompressingSerializer(Codec codec) {
+        this.codec = codec;
+    }
+
+    @Override
+    public void serialize(DataOutput2 out, String value) throws IOException {
+        byte[] raw = value.getBytes(StandardCharsets.UTF_8);
+        byte[] stored = compress(codec, raw);
+
+        out.writeByte(codec.ordinal());
+        out.packInt(raw.length);
+        out.packInt(stored.length);
+        out.write(stored);
+    }
+
+    @Override
+    public String deserialize(DataInput2 in, int available) throws IOException {
+        Codec valueCodec = Codec.values()[in.readByte()];
+        int rawLength = in.unpackInt();
+        int storedLength = in.unpackInt();
+
+        byte[] stored = new byte[storedLength];
+        in.readFully(stored);
+
+        byte[] raw = decompress(valueCodec, stored, rawLength);
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] compress(Codec codec, byte[] raw) {
+        if (codec == Codec.LZ4) {
+            LZ4Compressor compressor = LZ4.fastCompressor();
+            return compressor.compress(raw);
+        }
+
+        if (codec == Codec.DEFLATE) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 16);
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    int len = deflater.deflate(buffer);
+                    out.write(buffer, 0, len);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        return raw;
+    }
+
+    private static byte[] decompress(Codec codec, byte[] stored, int rawLength) throws IOException {
+        if (codec == Codec.LZ4) {
+            LZ4FastDecompressor decompressor = LZ4.fastDecompressor();
+            return decompressor.decompress(stored, rawLength);
+        }
+
+        if (codec == Codec.DEFLATE) {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(stored);
+                byte[] raw = new byte[rawLength];
+                int offset = 0;
+                while (offset < rawLength && !inflater.finished()) {
+                    int len = inflater.inflate(raw, offset, rawLength - offset);
+                    if (len == 0 && inflater.needsInput()) {
+                        throw new IOException("truncated deflate stream");
+                    }
+                    offset = offset + len;
+                }
+                return raw;
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inflater.end();
+            }
+        }
+
+        return stored;
+    }
+
+}
@@ -1,13 +1,42 @@
 package crawler.crawlers;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public interface Crawler {
 
-    Map<String, String> crawl(List<String> urls);
+    /**
+     * Crawls the urls and returns the html of the crawled ones by url, the
+     * urls that failed or timed out are left out
+     */
+    default Map<String, String> crawl(List<String> urls) {
+        Map<String, String> result = new ConcurrentHashMap<>();
+        crawl(urls, page -> result.put(page.getUrl(), page.getHtml()));
+        return result;
+    }
 
     Optional<String> crawl(String url);
 
-}
\ No newline at end of file
+    /**
+     * Crawls the urls and passes each page to the callback as soon as it is
+     * fetched, without waiting for the rest of the batch. Returns when all the
+     * urls are either crawled or timed out. The callback may be invoked from
+     * several threads at once.
+     */
+    default void crawl(List<String> urls, Consumer<Page> callback) {
+        crawl(urls, Collections.emptyMap(), callback);
+    }
+
+    /**
+     * Same as {@link #crawl(List, Consumer)}, but for the urls that have a
+     * previously crawled page with validators, crawlers that support it send
+     * a conditional request. If the server says the page is not modified, the
+     * previous page is passed to the callback with the fetch time renewed.
+     */
+    void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback);
+
+}
@@ -0,0 +1,48 @@
+package crawler.crawlers;
+
+/**
+ * Lifecycle settings of the PhantomJS instances of {@link PhantomJsCrawler}.
+ * A driver is recycled when it has served {@code maxPagesPerDriver} pages or
+ * is older than {@code maxAgeMinutes}, whichever comes first.
+ */
+public class DriverPoolSettings {
+
+    private int maxPagesPerDriver = 200;
+    private int maxAgeMinutes = 60;
+    private int idleEvictionMinutes = 10;
+    /** number of drivers started with the pool and kept ready afterwards */
+    private int warmUp = 2;
+
+    public int getMaxPagesPerDriver() {
+        return maxPagesPerDriver;
+    }
+
+    public void setMaxPagesPerDriver(int maxPagesPerDriver) {
+        this.maxPagesPerDriver = maxPagesPerDriver;
+    }
+
+    public int getMaxAgeMinutes() {
+        return maxAgeMinutes;
+    }
+
+    public void setMaxAgeMinutes(int maxAgeMinutes) {
+        this.maxAgeMinutes = maxAgeMinutes;
+    }
+
+    public int getIdleEvictionMinutes() {
+        return idleEvictionMinutes;
+    }
+
+    public void setIdleEvictionMinutes(int idleEvictionMinutes) {
+        this.idleEvictionMinutes = idleEvictionMinutes;
+    }
+
+    public int getWarmUp() {
+        return warmUp;
+    }
+
+    public void setWarmUp(int warmUp) {
+        this.warmUp = warmUp;
+    }
+
+}
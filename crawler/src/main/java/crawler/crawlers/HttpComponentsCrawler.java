@@ -1,19 +1,16 @@
 package crawler.crawlers;
 
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
-import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.conn.ConnectTimeoutException;
@@ -27,21 +24,37 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Throwables;
 
-public class HttpComponentsCrawler implements Crawler, AutoCloseable {
+public class HttpComponentsCrawler implements AsyncCrawler, AutoCloseable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpComponentsCrawler.class);
 
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 2;
+    private static final int DEFAULT_MAX_CONNECTIONS = 20;
+
     private final ExecutorService executor;
     private final int timeout;
+    private final int maxBytes;
     private final CloseableHttpClient client;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
 
     public HttpComponentsCrawler(int timeout, ExecutorService executor) {
+        this(timeout, DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_CONNECTIONS, HttpPages.DEFAULT_MAX_BYTES,
+                executor);
+    }
+
+    /**
+     * @param maxBytes responses larger than that are dropped without being
+     *            read in full
+     */
+    public HttpComponentsCrawler(int timeout, int maxConnectionsPerHost, int maxConnections, int maxBytes,
+            ExecutorService executor) {
         this.timeout = timeout;
+        this.maxBytes = maxBytes;
         this.executor = executor;
-        this.client = createHttpComponent();
+        this.client = createHttpComponent(maxConnectionsPerHost, maxConnections);
     }
 
-    private static CloseableHttpClient createHttpComponent() {
+    private static CloseableHttpClient createHttpComponent(int maxConnectionsPerHost, int maxConnections) {
         try {
             SSLContextBuilder sslCtx = SSLContextBuilder.create();
             sslCtx.loadTrustMaterial(null, (c, t) -> true);
@@ -50,6 +63,9 @@ public class HttpComponentsCrawler implements Crawler, AutoCloseable {
             HttpClientBuilder builder = HttpClientBuilder.create();
             builder.setRedirectStrategy(new LaxRedirectStrategy());
             builder.setSSLSocketFactory(sslsf);
+            // keep-alive connections are pooled per host and reused for the next url of the same host
+            builder.setMaxConnPerRoute(maxConnectionsPerHost);
+            builder.setMaxConnTotal(maxConnections);
             builder.setUserAgent("Mozilla/5.0 (X11; Ubuntu; Linux x86_64; rv:47.0) Gecko/20100101 Firefox/47.0");
             return builder.build();
         } catch (Exception e) {
@@ -61,54 +77,65 @@ public class HttpComponentsCrawler implements Crawler, AutoCloseable {
         this(timeout, Executors.newFixedThreadPool(maxThreads));
     }
 
+    /**
+     * The fetches are submitted to the executor directly, the batch waits
+     * for them at most the timeout
+     */
     @Override
-    public Map<String, String> crawl(List<String> urls) {
-        Map<String, String> result = new ConcurrentHashMap<>();
-
-        urls.parallelStream().forEach(url -> {
-            Optional<String> html = crawl(url);
-            if (html.isPresent()) {
-                result.put(url, html.get());
-            }
-        });
-
-        return result;
+    public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+        Batches.crawl(this, urls, previous, callback, timeout);
     }
 
     @Override
     public Optional<String> crawl(String url) {
-        Future<Optional<String>> future = executor.submit(() -> doCrawl(url));
-        try {
-            return future.get(timeout, TimeUnit.MILLISECONDS);
-        } catch (TimeoutException e) {
-            LOGGER.debug("time out for {}", url);
-        } catch (InterruptedException | ExecutionException e) {
-            LOGGER.debug("execution exception for {}: {}", url, e.getMessage());
-        }
+        return fetch(url, null).map(Page::getHtml);
+    }
 
-        return Optional.empty();
+    /**
+     * The fetch takes a thread of the executor until it is done or aborted
+     */
+    @Override
+    public CompletableFuture<Optional<Page>> crawlAsync(String url, Page previous) {
+        return CompletableFuture.supplyAsync(() -> fetch(url, previous), executor);
     }
 
-    private Optional<String> doCrawl(String url) {
+    /**
+     * Fetches the url in the current thread. When the timeout passes, the
+     * request is aborted, which also unblocks the socket read and frees the
+     * thread and the connection.
+     */
+    private Optional<Page> fetch(String url, Page previous) {
+        HttpGet get;
         try {
-            HttpGet get = new HttpGet(url);
-
-            try (CloseableHttpResponse response = client.execute(get)) {
-                HttpEntity entity = response.getEntity();
-                String html = IOUtils.toString(entity.getContent(), StandardCharsets.UTF_8);
-                return Optional.of(html);
-            } catch (ConnectTimeoutException e) {
-                LOGGER.info("connection timeout for {}", url);
-                return Optional.empty();
-            }
+            get = new HttpGet(url);
+        } catch (IllegalArgumentException e) {
+            LOGGER.info("malformed url {}: {}", url, e.getMessage());
+            return Optional.empty();
+        }
+
+        HttpPages.addValidators(get, previous);
+        ScheduledFuture<?> watchdog = timer.schedule(get::abort, timeout, TimeUnit.MILLISECONDS);
+
+        try (CloseableHttpResponse response = client.execute(get)) {
+            return HttpPages.toPage(url, response, previous, maxBytes);
+        } catch (ConnectTimeoutException e) {
+            LOGGER.info("connection timeout for {}", url);
         } catch (Exception e) {
-            LOGGER.warn("unexpected error happened, rethrowing it", e);
-            throw new RuntimeException(e);
+            if (get.isAborted()) {
+                LOGGER.debug("time out for {}", url);
+            } else {
+                LOGGER.warn("unexpected error happened while crawling " + url, e);
+            }
+        } finally {
+            watchdog.cancel(false);
         }
+
+        return Optional.empty();
     }
 
     @Override
     public void close() throws Exception {
+        timer.shutdownNow();
         client.close();
     }
 
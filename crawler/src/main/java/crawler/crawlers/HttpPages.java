@@ -0,0 +1,206 @@
+package crawler.crawlers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.conn.EofSensorInputStream;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Conditional requests and conversion of responses to pages, shared by the
+ * HttpComponents based crawlers. Only html-like content types are read, the
+ * body is read up to a limit and decoded with the charset from the headers,
+ * the BOM or the meta tags.
+ */
+final class HttpPages {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpPages.class);
+
+    static final int DEFAULT_MAX_BYTES = 10 * 1024 * 1024;
+
+    private static final Set<String> HTML_TYPES = ImmutableSet.of("text/html", "application/xhtml+xml",
+            "text/xml", "application/xml", "text/plain");
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+    /** the meta charset must be in the first 1024 bytes of the document */
+    private static final int CHARSET_SNIFF_BYTES = 1024;
+    private static final Pattern META_CHARSET = Pattern.compile(
+            "<meta[^>]+charset\\s*=\\s*[\"']?\\s*([a-z0-9_.:\\-]+)", Pattern.CASE_INSENSITIVE);
+
+    private HttpPages() {
+    }
+
+    static void addValidators(HttpRequest request, Page previous) {
+        if (previous == null) {
+            return;
+        }
+        if (previous.getEtag() != null) {
+            request.setHeader("If-None-Match", previous.getEtag());
+        }
+        if (previous.getLastModified() != null) {
+            request.setHeader("If-Modified-Since", previous.getLastModified());
+        }
+    }
+
+    static Optional<Page> toPage(String url, HttpResponse response, Page previous, int maxBytes)
+            throws IOException {
+        int status = response.getStatusLine().getStatusCode();
+        if (status == HttpStatus.SC_NOT_MODIFIED && previous != null) {
+            EntityUtils.consume(response.getEntity());
+            return Optional.of(previous.refreshed());
+        }
+
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return Optional.empty();
+        }
+
+        ContentType contentType = ContentType.getLenient(entity);
+        if (!isAcceptable(url, contentType, entity.getContentLength(), maxBytes)) {
+            return Optional.empty();
+        }
+
+        Optional<String> html = read(url, entity, contentType, maxBytes);
+        if (!html.isPresent()) {
+            return Optional.empty();
+        }
+
+        String etag = headerValue(response, "ETag");
+        String lastModified = headerValue(response, "Last-Modified");
+        return Optional.of(new Page(url, html.get(), etag, lastModified, System.currentTimeMillis()));
+    }
+
+    /**
+     * Checks the headers of the response, before anything is read
+     */
+    static boolean isAcceptable(String url, ContentType contentType, long contentLength, int maxBytes) {
+        if (contentType != null && !HTML_TYPES.contains(contentType.getMimeType().toLowerCase(Locale.ENGLISH))) {
+            LOGGER.debug("skipping {}, it is {}", url, contentType.getMimeType());
+            return false;
+        }
+        if (contentLength > maxBytes) {
+            LOGGER.debug("skipping {}, it has {} bytes", url, contentLength);
+            return false;
+        }
+        return true;
+    }
+
+    private static Optional<String> read(String url, HttpEntity entity, ContentType contentType, int maxBytes)
+            throws IOException {
+        long contentLength = entity.getContentLength();
+        int initialSize = contentLength >= 0 ? (int) contentLength : Math.min(INITIAL_BUFFER_SIZE, maxBytes);
+        byte[] buffer = new byte[initialSize];
+        int size = 0;
+
+        InputStream in = entity.getContent();
+        try {
+            while (true) {
+                if (size == buffer.length) {
+                    // a buffer of the announced length is usually the whole body, one byte tells
+                    int next = in.read();
+                    if (next < 0) {
+                        break;
+                    }
+                    if (size >= maxBytes) {
+                        LOGGER.debug("skipping {}, it has more than {} bytes", url, maxBytes);
+                        abort(in);
+                        return Optional.empty();
+                    }
+                    int newLength = (int) Math.min(Math.max(2L * buffer.length, INITIAL_BUFFER_SIZE), maxBytes);
+                    byte[] bigger = new byte[newLength];
+                    System.arraycopy(buffer, 0, bigger, 0, size);
+                    buffer = bigger;
+                    buffer[size] = (byte) next;
+                    size++;
+                }
+
+                int read = in.read(buffer, size, buffer.length - size);
+                if (read < 0) {
+                    break;
+                }
+                size = size + read;
+            }
+        } catch (IOException e) {
+            abort(in);
+            throw e;
+        }
+
+        in.close();
+        Charset charset = charset(contentType, buffer, size);
+        return Optional.of(new String(buffer, 0, size, charset));
+    }
+
+    /**
+     * Drops the connection instead of reading the rest of the body, which
+     * closing the stream would do
+     */
+    private static void abort(InputStream in) throws IOException {
+        if (in instanceof EofSensorInputStream) {
+            ((EofSensorInputStream) in).abortConnection();
+        } else {
+            in.close();
+        }
+    }
+
+    static Charset charset(ContentType contentType, byte[] body, int size) {
+        Optional<Charset> bom = bomCharset(body, size);
+        if (bom.isPresent()) {
+            return bom.get();
+        }
+
+        if (contentType != null && contentType.getCharset() != null) {
+            return contentType.getCharset();
+        }
+
+        String head = new String(body, 0, Math.min(size, CHARSET_SNIFF_BYTES), StandardCharsets.ISO_8859_1);
+        Matcher matcher = META_CHARSET.matcher(head);
+        if (matcher.find()) {
+            try {
+                return Charset.forName(matcher.group(1));
+            } catch (IllegalArgumentException e) {
+                LOGGER.debug("unknown charset {}", matcher.group(1));
+            }
+        }
+
+        return StandardCharsets.UTF_8;
+    }
+
+    private static Optional<Charset> bomCharset(byte[] body, int size) {
+        if (size >= 3 && (body[0] & 0xFF) == 0xEF && (body[1] & 0xFF) == 0xBB && (body[2] & 0xFF) == 0xBF) {
+            return Optional.of(StandardCharsets.UTF_8);
+        }
+        if (size >= 2 && (body[0] & 0xFF) == 0xFE && (body[1] & 0xFF) == 0xFF) {
+            return Optional.of(StandardCharsets.UTF_16BE);
+        }
+        if (size >= 2 && (body[0] & 0xFF) == 0xFF && (body[1] & 0xFF) == 0xFE) {
+            return Optional.of(StandardCharsets.UTF_16LE);
+        }
+        return Optional.empty();
+    }
+
+    private static String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        if (header == null) {
+            return null;
+        }
+        return header.getValue();
+    }
+
+}
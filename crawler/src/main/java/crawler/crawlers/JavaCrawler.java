@@ -4,13 +4,13 @@ import java.net.URL;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -33,17 +33,13 @@ public class JavaCrawler implements Crawler {
     }
 
     @Override
-    public Map<String, String> crawl(List<String> urls) {
-        Map<String, String> result = new ConcurrentHashMap<>();
-
+    public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
         urls.parallelStream().forEach(url -> {
             Optional<String> html = crawl(url);
             if (html.isPresent()) {
-                result.put(url, html.get());
+                callback.accept(new Page(url, html.get()));
             }
         });
-
-        return result;
     }
 
     @Override
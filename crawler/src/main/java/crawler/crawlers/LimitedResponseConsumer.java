@@ -0,0 +1,72 @@
+package crawler.crawlers;
+
+import java.io.IOException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.ContentBufferEntity;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.nio.util.HeapByteBufferAllocator;
+import org.apache.http.nio.util.SimpleInputBuffer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Like the default in-memory consumer of HttpAsyncClient, but fails the
+ * request as soon as the response turns out not to be html or gets larger
+ * than {@code maxBytes}, so such responses are never buffered in full.
+ */
+class LimitedResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private final String url;
+    private final int maxBytes;
+
+    private volatile HttpResponse response;
+    private volatile SimpleInputBuffer buffer;
+
+    LimitedResponseConsumer(String url, int maxBytes) {
+        this.url = url;
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    protected void onResponseReceived(HttpResponse response) {
+        this.response = response;
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+        long contentLength = entity.getContentLength();
+        if (!HttpPages.isAcceptable(url, contentType, contentLength, maxBytes)) {
+            throw new IOException("response of " + url + " is not accepted");
+        }
+
+        int initialSize = contentLength >= 0 ? (int) contentLength : INITIAL_BUFFER_SIZE;
+        this.buffer = new SimpleInputBuffer(Math.max(initialSize, 1), HeapByteBufferAllocator.INSTANCE);
+        this.response.setEntity(new ContentBufferEntity(entity, buffer));
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioctrl) throws IOException {
+        buffer.consumeContent(decoder);
+        if (buffer.length() > maxBytes) {
+            throw new IOException("response of " + url + " has more than " + maxBytes + " bytes");
+        }
+    }
+
+    @Override
+    protected HttpResponse buildResult(HttpContext context) {
+        return response;
+    }
+
+    @Override
+    protected void releaseResources() {
+        this.response = null;
+        this.buffer = null;
+    }
+
+}
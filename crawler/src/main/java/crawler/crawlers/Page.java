@@ -0,0 +1,78 @@
+package crawler.crawlers;
+
+public class Page {
+
+    private final String url;
+    private final String html;
+    private final String etag;
+    private final String lastModified;
+    private final long fetchedAt;
+    private final boolean stale;
+
+    public Page(String url, String html) {
+        this(url, html, null, null, System.currentTimeMillis());
+    }
+
+    public Page(String url, String html, String etag, String lastModified, long fetchedAt) {
+        this(url, html, etag, lastModified, fetchedAt, false);
+    }
+
+    private Page(String url, String html, String etag, String lastModified, long fetchedAt, boolean stale) {
+        this.url = url;
+        this.html = html;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.fetchedAt = fetchedAt;
+        this.stale = stale;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getHtml() {
+        return html;
+    }
+
+    /**
+     * @return value of the ETag response header, or null if the server did not send it
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * @return value of the Last-Modified response header, or null if the server did not send it
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    /**
+     * @return true if the page is served from the cache after its TTL, while it
+     *         is being refreshed in background
+     */
+    public boolean isStale() {
+        return stale;
+    }
+
+    public boolean hasValidators() {
+        return etag != null || lastModified != null;
+    }
+
+    /**
+     * @return the same page, confirmed by the server to be unchanged just now
+     */
+    public Page refreshed() {
+        return new Page(url, html, etag, lastModified, System.currentTimeMillis());
+    }
+
+    public Page asStale() {
+        return new Page(url, html, etag, lastModified, fetchedAt, true);
+    }
+
+}
@@ -0,0 +1,137 @@
+package crawler.crawlers;
+
+import java.util.List;
+import java.util.Locale;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.phantomjs.PhantomJSDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides when a page loaded by PhantomJS is rendered enough to take its
+ * source. The page is polled until it is ready, but never longer than the
+ * given maximal wait, which is what the fixed sleep used to be.
+ */
+public class PageReadiness {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PageReadiness.class);
+
+    private static final long POLL_INTERVAL_MS = 100;
+    private static final long NETWORK_IDLE_MS = 500;
+
+    private static final String TRACK_REQUESTS = "var page = this;"
+            + "page.pendingRequests = 0;"
+            + "page.lastActivity = Date.now();"
+            + "var previous = page.onResourceRequested;"
+            + "page.onResourceRequested = function() {"
+            + "  page.pendingRequests++;"
+            + "  page.lastActivity = Date.now();"
+            + "  if (previous) { previous.apply(page, arguments); }"
+            + "};"
+            + "page.onResourceReceived = function(response) {"
+            + "  if (response.stage === 'end') { page.pendingRequests--; page.lastActivity = Date.now(); }"
+            + "};"
+            + "page.onResourceError = function() { page.pendingRequests--; page.lastActivity = Date.now(); };"
+            + "page.onResourceTimeout = function() { page.pendingRequests--; page.lastActivity = Date.now(); };";
+    private static final String RESET_REQUESTS = "this.pendingRequests = 0; this.lastActivity = Date.now();";
+    private static final String NETWORK_STATE = "return [this.pendingRequests, Date.now() - this.lastActivity];";
+
+    public enum Strategy {
+        /** always waits for the maximal time */
+        SLEEP,
+        /** document.readyState is complete */
+        DOCUMENT,
+        /** the document is complete and no requests were made for a while */
+        NETWORK,
+        /** an element matching the selector is present */
+        SELECTOR;
+    }
+
+    private final Strategy strategy;
+    private final String selector;
+
+    public PageReadiness(Strategy strategy, String selector) {
+        if (strategy == Strategy.SELECTOR && (selector == null || selector.isEmpty())) {
+            throw new IllegalArgumentException("the selector readiness strategy needs a selector");
+        }
+        this.strategy = strategy;
+        this.selector = selector;
+    }
+
+    public static PageReadiness sleep() {
+        return new PageReadiness(Strategy.SLEEP, null);
+    }
+
+    public static PageReadiness of(String strategy, String selector) {
+        return new PageReadiness(Strategy.valueOf(strategy.toUpperCase(Locale.ENGLISH)), selector);
+    }
+
+    /**
+     * Called once for every new driver
+     */
+    void prepare(WebDriver driver) {
+        if (strategy == Strategy.NETWORK && driver instanceof PhantomJSDriver) {
+            ((PhantomJSDriver) driver).executePhantomJS(TRACK_REQUESTS);
+        }
+    }
+
+    /**
+     * Called before every page load
+     */
+    void beforeLoad(WebDriver driver) {
+        if (strategy == Strategy.NETWORK && driver instanceof PhantomJSDriver) {
+            ((PhantomJSDriver) driver).executePhantomJS(RESET_REQUESTS);
+        }
+    }
+
+    void await(WebDriver driver, long maxWaitMs) throws InterruptedException {
+        if (strategy == Strategy.SLEEP) {
+            Thread.sleep(maxWaitMs);
+            return;
+        }
+
+        long deadline = System.currentTimeMillis() + maxWaitMs;
+        while (!isReady(driver)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                LOGGER.debug("{} is not ready after {} ms, taking it as it is", driver.getCurrentUrl(), maxWaitMs);
+                return;
+            }
+            Thread.sleep(Math.min(POLL_INTERVAL_MS, remaining));
+        }
+    }
+
+    private boolean isReady(WebDriver driver) {
+        try {
+            JavascriptExecutor js = (JavascriptExecutor) driver;
+            if (strategy == Strategy.SELECTOR) {
+                Object found = js.executeScript("return document.querySelector(arguments[0]) !== null;", selector);
+                return Boolean.TRUE.equals(found);
+            }
+
+            boolean complete = "complete".equals(js.executeScript("return document.readyState;"));
+            if (strategy == Strategy.DOCUMENT || !complete) {
+                return complete;
+            }
+
+            return isNetworkIdle(driver);
+        } catch (Exception e) {
+            LOGGER.debug("cannot check if the page is ready: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static boolean isNetworkIdle(WebDriver driver) {
+        if (!(driver instanceof PhantomJSDriver)) {
+            return true;
+        }
+
+        List<?> state = (List<?>) ((PhantomJSDriver) driver).executePhantomJS(NETWORK_STATE);
+        long pending = ((Number) state.get(0)).longValue();
+        long idle = ((Number) state.get(1)).longValue();
+        return pending <= 0 && idle >= NETWORK_IDLE_MS;
+    }
+
+}
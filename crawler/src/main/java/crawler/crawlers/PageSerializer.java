@@ -0,0 +1,55 @@
+package crawler.crawlers;
+
+import java.io.IOException;
+
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.Serializer;
+
+/**
+ * MapDB serializer for cached pages: the HTML goes through
+ * {@link CompressingSerializer}, the validators and the fetch time are stored
+ * next to it.
+ */
+public class PageSerializer implements Serializer<Page> {
+
+    private final CompressingSerializer htmlSerializer;
+
+    public PageSerializer(CompressingSerializer htmlSerializer) {
+        this.htmlSerializer = htmlSerializer;
+    }
+
+    @Override
+    public void serialize(DataOutput2 out, Page page) throws IOException {
+        Serializer.STRING.serialize(out, page.getUrl());
+        out.writeLong(page.getFetchedAt());
+        writeNullable(out, page.getEtag());
+        writeNullable(out, page.getLastModified());
+        htmlSerializer.serialize(out, page.getHtml());
+    }
+
+    @Override
+    public Page deserialize(DataInput2 in, int available) throws IOException {
+        String url = Serializer.STRING.deserialize(in, -1);
+        long fetchedAt = in.readLong();
+        String etag = readNullable(in);
+        String lastModified = readNullable(in);
+        String html = htmlSerializer.deserialize(in, -1);
+        return new Page(url, html, etag, lastModified, fetchedAt);
+    }
+
+    private static void writeNullable(DataOutput2 out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            Serializer.STRING.serialize(out, value);
+        }
+    }
+
+    private static String readNullable(DataInput2 in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return Serializer.STRING.deserialize(in, -1);
+    }
+
+}
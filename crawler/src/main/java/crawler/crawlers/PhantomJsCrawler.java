@@ -1,24 +1,33 @@
 package crawler.crawlers;
 
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.apache.commons.pool.PoolableObjectFactory;
 import org.apache.commons.pool.impl.GenericObjectPool;
 import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.os.CommandLine;
 import org.openqa.selenium.phantomjs.PhantomJSDriver;
+import org.openqa.selenium.phantomjs.PhantomJSDriverService;
 import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.service.DriverService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class PhantomJsCrawler implements AutoCloseable, Crawler {
+public class PhantomJsCrawler implements AutoCloseable, AsyncCrawler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PhantomJsCrawler.class);
 
@@ -27,39 +36,85 @@ public class PhantomJsCrawler implements AutoCloseable, Crawler {
     private final ExecutorService executor;
     private final int timeout;
     private final int waitTime;
-    private final GenericObjectPool<WebDriver> pool;
+    private final PageReadiness readiness;
+    private final PhantomJsFactory factory;
+    private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(2);
+    /** kills the timed out drivers, which may take a while, so it is not done on the timer */
+    private final ExecutorService reaper = Executors.newCachedThreadPool();
+    private final GenericObjectPool<PooledDriver> pool;
+
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
 
     public PhantomJsCrawler(int phantomJsInstances, int timeout, int waitTime, ExecutorService executor) {
+        this(phantomJsInstances, timeout, waitTime, executor, new DriverPoolSettings(), PageReadiness.sleep(),
+                ResourceBlocking.none());
+    }
+
+    /**
+     * @param waitTime the maximal time to wait for the page to become ready
+     *            after it is loaded
+     */
+    public PhantomJsCrawler(int phantomJsInstances, int timeout, int waitTime, ExecutorService executor,
+            DriverPoolSettings settings, PageReadiness readiness, ResourceBlocking blocking) {
+        this(phantomJsInstances, timeout, waitTime, executor, settings, readiness, blocking,
+                PhantomJsCrawler::launchPhantomJs);
+    }
+
+    PhantomJsCrawler(int phantomJsInstances, int timeout, int waitTime, ExecutorService executor,
+            DriverPoolSettings settings, PageReadiness readiness, ResourceBlocking blocking, DriverLauncher launcher) {
         this.timeout = timeout;
         this.waitTime = waitTime;
         this.executor = executor;
-        this.pool = createPhantomJsPool(phantomJsInstances);
+        this.readiness = readiness;
+        this.factory = new PhantomJsFactory(settings, readiness, blocking, launcher);
+        this.pool = createPhantomJsPool(factory, phantomJsInstances, settings);
+        warmUp(Math.min(settings.getWarmUp(), phantomJsInstances));
     }
 
-    private static GenericObjectPool<WebDriver> createPhantomJsPool(int poolSize) {
-        PoolableObjectFactory<WebDriver> driverFactory = new PhantomJsFactory();
-        GenericObjectPool<WebDriver> pool = new GenericObjectPool<>(driverFactory);
+    private static GenericObjectPool<PooledDriver> createPhantomJsPool(PhantomJsFactory factory, int poolSize,
+            DriverPoolSettings settings) {
+        GenericObjectPool<PooledDriver> pool = new GenericObjectPool<>(factory);
         pool.setMaxActive(poolSize);
         pool.setMaxIdle(poolSize);
+        pool.setWhenExhaustedAction(GenericObjectPool.WHEN_EXHAUSTED_BLOCK);
+
+        // recycled and dead drivers are thrown away on borrow, so a request never gets them
+        pool.setTestOnBorrow(true);
+
+        // idle drivers are checked and evicted in background, the pool is refilled up to minIdle
+        pool.setTestWhileIdle(true);
+        pool.setTimeBetweenEvictionRunsMillis(TimeUnit.MINUTES.toMillis(1));
+        pool.setMinEvictableIdleTimeMillis(TimeUnit.MINUTES.toMillis(settings.getIdleEvictionMinutes()));
+        pool.setNumTestsPerEvictionRun(poolSize);
+        pool.setMinIdle(Math.min(settings.getWarmUp(), poolSize));
         return pool;
     }
 
+    private void warmUp(int instances) {
+        LOGGER.info("starting {} phantomjs instances", instances);
+        for (int i = 0; i < instances; i++) {
+            try {
+                pool.addObject();
+            } catch (Exception e) {
+                LOGGER.warn("could not start a phantomjs instance", e);
+            }
+        }
+    }
+
     public PhantomJsCrawler(int maxThreads, int timeout) {
         this(maxThreads, timeout, DEFAULT_WAIT_TIME, Executors.newFixedThreadPool(maxThreads));
     }
 
+    /**
+     * The batch waits at most the timeout, also for the urls that wait for a
+     * free driver
+     */
     @Override
-    public Map<String, String> crawl(List<String> urls) {
-        Map<String, String> result = new ConcurrentHashMap<>();
-
-        urls.parallelStream().forEach(url -> {
-            Optional<String> html = crawl(url);
-            if (html.isPresent()) {
-                result.put(url, html.get());
-            }
-        });
-
-        return result;
+    public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+        Batches.crawl(this, urls, previous, callback, timeout);
     }
 
     @Override
@@ -67,6 +122,16 @@ public class PhantomJsCrawler implements AutoCloseable, Crawler {
         return doRetryCrawl(url);
     }
 
+    /**
+     * The crawl takes a thread of the executor and a driver until it is done
+     * or timed out. Conditional requests are not supported, so the previous
+     * page is ignored.
+     */
+    @Override
+    public CompletableFuture<Optional<Page>> crawlAsync(String url, Page previous) {
+        return CompletableFuture.supplyAsync(() -> doRetryCrawl(url).map(html -> new Page(url, html)), executor);
+    }
+
     private Optional<String> doRetryCrawl(String url) {
         int numTrials = 3;
 
@@ -85,29 +150,107 @@ public class PhantomJsCrawler implements AutoCloseable, Crawler {
         return Optional.empty();
     }
 
+    /**
+     * Crawls the url in the current thread. When the timeout passes, the
+     * PhantomJS process is killed: that is the only way to interrupt a
+     * hanging call, and the driver is not returned to the pool while it is
+     * still busy with the page.
+     */
     private Optional<String> unsafeTimeoutCrawl(String url) throws Exception {
         LOGGER.info("crawling {}...", url);
-        WebDriver driver = pool.borrowObject();
+        PooledDriver pooled = borrow();
+        WebDriver driver = pooled.driver;
+        AtomicBoolean done = new AtomicBoolean();
 
-        try {
-            Future<String> future = executor.submit(() -> {
-                driver.get(url);
-                sleep();
-                return driver.getPageSource();
-            });
+        ScheduledFuture<?> watchdog = timer.schedule(() -> {
+            if (done.compareAndSet(false, true)) {
+                LOGGER.debug("timeout while crawling {}, killing the driver", url);
+                timeouts.incrementAndGet();
+                reaper.execute(() -> kill(pooled));
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
 
-            try {
-                String html = future.get(timeout, TimeUnit.MILLISECONDS);
-                return Optional.of(html);
-            } catch (TimeoutException e) {
-                LOGGER.debug("timeout while crawling {}", url);
+        boolean broken = false;
+        try {
+            readiness.beforeLoad(driver);
+            driver.get(url);
+            readiness.await(driver, waitTime);
+            String html = driver.getPageSource();
+            return done.get() ? Optional.empty() : Optional.of(html);
+        } catch (Exception e) {
+            if (done.get()) {
+                // the driver was destroyed by the watchdog
                 return Optional.empty();
             }
+            broken = true;
+            throw e;
         } finally {
+            watchdog.cancel(false);
+            pooled.pagesServed++;
+            if (done.compareAndSet(false, true)) {
+                release(pooled, broken);
+            }
+        }
+    }
+
+    /**
+     * Kills the process of a hanging driver without a call to it, which could
+     * hang as well, and removes it from the pool
+     */
+    private void kill(PooledDriver driver) {
+        driver.killed = true;
+        try {
+            driver.kill.run();
+        } catch (Exception e) {
+            LOGGER.warn("could not kill phantomjs instance", e);
+        }
+        try {
+            pool.invalidateObject(driver);
+        } catch (Exception e) {
+            LOGGER.warn("could not destroy phantomjs instance", e);
+        }
+    }
+
+    private PooledDriver borrow() throws Exception {
+        long start = System.nanoTime();
+        PooledDriver driver = pool.borrowObject();
+        long wait = System.nanoTime() - start;
+
+        borrows.incrementAndGet();
+        borrowWaitNanos.addAndGet(wait);
+        maxBorrowWaitNanos.accumulateAndGet(wait, Math::max);
+        return driver;
+    }
+
+    private void release(PooledDriver driver, boolean broken) throws Exception {
+        if (broken) {
+            factory.dead.incrementAndGet();
+            pool.invalidateObject(driver);
+        } else if (!factory.isUsable(driver)) {
+            factory.recycled.incrementAndGet();
+            pool.invalidateObject(driver);
+        } else {
             pool.returnObject(driver);
         }
     }
 
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long borrowCount = borrows.get();
+        stats.put("active", pool.getNumActive());
+        stats.put("idle", pool.getNumIdle());
+        stats.put("max", pool.getMaxActive());
+        stats.put("borrows", borrowCount);
+        stats.put("borrow.wait.avg.ms", borrowCount == 0 ? 0 : borrowWaitNanos.get() / borrowCount / 1_000_000);
+        stats.put("borrow.wait.max.ms", maxBorrowWaitNanos.get() / 1_000_000);
+        stats.put("created", factory.created.get());
+        stats.put("destroyed", factory.destroyed.get());
+        stats.put("recycled", factory.recycled.get());
+        stats.put("dead", factory.dead.get());
+        stats.put("timeouts", timeouts.get());
+        return stats;
+    }
+
     private void sleep() {
         try {
             Thread.sleep(waitTime);
@@ -117,28 +260,141 @@ public class PhantomJsCrawler implements AutoCloseable, Crawler {
 
     @Override
     public void close() throws Exception {
+        timer.shutdownNow();
+        reaper.shutdown();
+        reaper.awaitTermination(timeout, TimeUnit.MILLISECONDS);
         pool.clear();
         pool.close();
     }
 
-    private static final class PhantomJsFactory implements PoolableObjectFactory<WebDriver> {
-        @Override
-        public boolean validateObject(WebDriver obj) {
+    /**
+     * Starts the drivers of the pool, a PhantomJS process each unless a test
+     * gives another launcher
+     */
+    interface DriverLauncher {
+        PooledDriver launch(DesiredCapabilities capabilities) throws Exception;
+    }
+
+    private static PooledDriver launchPhantomJs(DesiredCapabilities capabilities) throws IOException {
+        PhantomJSDriverService service = PhantomJSDriverService.createDefaultService(capabilities);
+        return new PooledDriver(new PhantomJSDriver(service, capabilities), () -> destroyProcess(service));
+    }
+
+    /**
+     * Destroys the process of the service. {@link DriverService#stop()} would
+     * first send a shutdown request to it and wait for it to go down, which
+     * does not help with a process that hangs.
+     */
+    private static void destroyProcess(DriverService service) {
+        try {
+            Field process = DriverService.class.getDeclaredField("process");
+            process.setAccessible(true);
+            CommandLine commandLine = (CommandLine) process.get(service);
+            if (commandLine != null) {
+                commandLine.destroy();
+            }
+        } catch (ReflectiveOperationException e) {
+            LOGGER.warn("cannot kill the phantomjs process, stopping it", e);
+            service.stop();
+        }
+    }
+
+    static final class PooledDriver {
+        private final WebDriver driver;
+        /** ends the browser process without a call to it */
+        private final Runnable kill;
+        private final long createdAt = System.currentTimeMillis();
+        /** only touched by the thread that borrowed the driver */
+        private int pagesServed = 0;
+        /** set when the process was killed, it is then not asked to quit */
+        private volatile boolean killed = false;
+
+        PooledDriver(WebDriver driver, Runnable kill) {
+            this.driver = driver;
+            this.kill = kill;
+        }
+    }
+
+    private static final class PhantomJsFactory implements PoolableObjectFactory<PooledDriver> {
+        private final int maxPages;
+        private final long maxAgeMs;
+        private final PageReadiness readiness;
+        private final ResourceBlocking blocking;
+        private final DriverLauncher launcher;
+
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong destroyed = new AtomicLong();
+        /** replaced after maxPages or maxAge */
+        private final AtomicLong recycled = new AtomicLong();
+        /** failed during a crawl or a health check */
+        private final AtomicLong dead = new AtomicLong();
+
+        private PhantomJsFactory(DriverPoolSettings settings, PageReadiness readiness, ResourceBlocking blocking,
+                DriverLauncher launcher) {
+            this.readiness = readiness;
+            this.blocking = blocking;
+            this.launcher = launcher;
+            this.maxPages = settings.getMaxPagesPerDriver();
+            this.maxAgeMs = TimeUnit.MINUTES.toMillis(settings.getMaxAgeMinutes());
+        }
+
+        /**
+         * @return false when the driver has served enough pages or lived
+         *         long enough and should be replaced with a fresh process
+         */
+        private boolean isUsable(PooledDriver pooled) {
+            if (pooled.pagesServed >= maxPages) {
+                LOGGER.debug("recycling phantomjs after {} pages", pooled.pagesServed);
+                return false;
+            }
+            if (System.currentTimeMillis() - pooled.createdAt >= maxAgeMs) {
+                LOGGER.debug("recycling phantomjs after {} pages, it is too old", pooled.pagesServed);
+                return false;
+            }
             return true;
         }
 
         @Override
-        public void passivateObject(WebDriver obj) throws Exception {
+        public boolean validateObject(PooledDriver pooled) {
+            if (!isUsable(pooled)) {
+                recycled.incrementAndGet();
+                return false;
+            }
+
+            try {
+                // a round trip to the phantomjs process, fails if it is dead or hanging
+                pooled.driver.getWindowHandle();
+                return true;
+            } catch (Exception e) {
+                LOGGER.warn("phantomjs instance is not healthy: {}", e.getMessage());
+                dead.incrementAndGet();
+                return false;
+            }
+        }
+
+        @Override
+        public void passivateObject(PooledDriver obj) throws Exception {
         }
 
         @Override
-        public WebDriver makeObject() throws Exception {
+        public PooledDriver makeObject() throws Exception {
             DesiredCapabilities phantomjs = DesiredCapabilities.phantomjs();
-            return new PhantomJSDriver(phantomjs);
+            blocking.configure(phantomjs);
+            PooledDriver driver = launcher.launch(phantomjs);
+            blocking.prepare(driver.driver);
+            readiness.prepare(driver.driver);
+            created.incrementAndGet();
+            return driver;
         }
 
         @Override
-        public void destroyObject(WebDriver driver) throws Exception {
+        public void destroyObject(PooledDriver pooled) throws Exception {
+            destroyed.incrementAndGet();
+            if (pooled.killed) {
+                return;
+            }
+            WebDriver driver = pooled.driver;
+
             try {
                 driver.close();
             } catch (Exception e) {
@@ -153,7 +409,7 @@ public class PhantomJsCrawler implements AutoCloseable, Crawler {
         }
 
         @Override
-        public void activateObject(WebDriver driver) throws Exception {
+        public void activateObject(PooledDriver driver) throws Exception {
         }
     }
 
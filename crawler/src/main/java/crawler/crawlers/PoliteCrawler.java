@@ -0,0 +1,282 @@
+package crawler.crawlers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules the fetches of the underlying crawler per host: at most
+ * {@code maxPerHost} urls of the same host are crawled at the same time, and
+ * two consecutive fetches from one host start at least {@code delay} ms apart.
+ * The limits are global, so they also hold across concurrent batches.
+ * <br>
+ * The urls wait in their host queue until the host has a free permit, and
+ * are then handed over to the crawler without blocking: an
+ * {@link AsyncCrawler} starts the fetch and tells when it is done, so no
+ * thread waits for the urls in flight. Other crawlers are run on the
+ * executor, one url per thread.
+ * <br>
+ * A batch waits for its urls at most {@code maxWait} ms, the urls still
+ * waiting in the host queues then are dropped and logged. With the default
+ * delay of 250 ms and max wait of 120 s, that is every url past about 480
+ * of a single host batch.
+ */
+public class PoliteCrawler implements Crawler, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PoliteCrawler.class);
+
+    private static final int MAX_LOGGED_URLS = 20;
+
+    private final Crawler crawler;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+    private final int maxPerHost;
+    private final long delay;
+    private final long maxWait;
+
+    /** a queue is removed only when it has no work and its delay is over */
+    private final ConcurrentMap<String, HostQueue> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * @param executor runs the fetches of crawlers that are not an {@link AsyncCrawler}
+     */
+    public PoliteCrawler(Crawler crawler, ExecutorService executor, int maxPerHost, long delay, long maxWait) {
+        this.crawler = crawler;
+        this.executor = executor;
+        this.maxPerHost = maxPerHost;
+        this.delay = delay;
+        this.maxWait = maxWait;
+    }
+
+    @Override
+    public Optional<String> crawl(String url) {
+        AtomicReference<String> result = new AtomicReference<>();
+        crawl(Collections.singletonList(url), page -> result.set(page.getHtml()));
+        return Optional.ofNullable(result.get());
+    }
+
+    /**
+     * The pages are passed to the callback in the calling thread, in the
+     * order they are crawled
+     */
+    @Override
+    public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+        BlockingQueue<Optional<Page>> completed = new LinkedBlockingQueue<>();
+        List<Task> tasks = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            Task task = new Task(url, previous.get(url), completed);
+            tasks.add(task);
+            submit(Urls.host(url), task);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                long remaining = deadline - System.nanoTime();
+                Optional<Page> page = completed.poll(remaining, TimeUnit.NANOSECONDS);
+                if (page == null) {
+                    logDropped(tasks);
+                    break;
+                }
+                if (page.isPresent()) {
+                    callback.accept(page.get());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            tasks.forEach(Task::cancel);
+        }
+    }
+
+    private void logDropped(List<Task> tasks) {
+        List<String> dropped = new ArrayList<>();
+        for (Task task : tasks) {
+            if (!task.done) {
+                dropped.add(task.url);
+            }
+        }
+        List<String> logged = dropped.subList(0, Math.min(dropped.size(), MAX_LOGGED_URLS));
+        LOGGER.warn("{} urls of the batch were not crawled in {} ms and are dropped, e.g. {}", dropped.size(),
+                maxWait, logged);
+    }
+
+    private void submit(String host, Task task) {
+        HostQueue queue = hosts.compute(host, (h, existing) -> {
+            HostQueue q = existing != null ? existing : new HostQueue(h);
+            q.add(task);
+            return q;
+        });
+        queue.dispatch();
+    }
+
+    private void start(HostQueue queue, Task task) {
+        CompletableFuture<Optional<Page>> fetch;
+        if (crawler instanceof AsyncCrawler) {
+            fetch = ((AsyncCrawler) crawler).crawlAsync(task.url, task.previous);
+        } else {
+            fetch = CompletableFuture.supplyAsync(() -> crawlBlocking(task.url, task.previous), executor);
+        }
+
+        fetch.whenComplete((page, e) -> {
+            if (e != null) {
+                LOGGER.warn("unexpected error happened while crawling " + task.url, e);
+            }
+            task.done = true;
+            task.completed.add(page != null ? page : Optional.empty());
+            queue.finished();
+        });
+    }
+
+    private Optional<Page> crawlBlocking(String url, Page previous) {
+        AtomicReference<Page> result = new AtomicReference<>();
+        Map<String, Page> singlePrevious = previous != null
+                ? Collections.singletonMap(url, previous)
+                : Collections.emptyMap();
+        crawler.crawl(Collections.singletonList(url), singlePrevious, result::set);
+        return Optional.ofNullable(result.get());
+    }
+
+    private void removeIfIdle(HostQueue queue) {
+        hosts.computeIfPresent(queue.host, (h, q) -> q == queue && q.isIdle() ? null : q);
+    }
+
+    int hostQueues() {
+        return hosts.size();
+    }
+
+    @Override
+    public void close() throws Exception {
+        timer.shutdownNow();
+    }
+
+    private static final class Task {
+        private final String url;
+        private final Page previous;
+        private final BlockingQueue<Optional<Page>> completed;
+        private volatile boolean cancelled = false;
+        private volatile boolean done = false;
+
+        private Task(String url, Page previous, BlockingQueue<Optional<Page>> completed) {
+            this.url = url;
+            this.previous = previous;
+            this.completed = completed;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final class HostQueue {
+        private final String host;
+        private final Deque<Task> pending = new ArrayDeque<>();
+        private int running = 0;
+        private long nextStart = 0;
+        private boolean wakeUpScheduled = false;
+
+        private HostQueue(String host) {
+            this.host = host;
+        }
+
+        synchronized void add(Task task) {
+            pending.add(task);
+        }
+
+        synchronized boolean isIdle() {
+            return pending.isEmpty() && running == 0 && !wakeUpScheduled
+                    && System.currentTimeMillis() >= nextStart;
+        }
+
+        /**
+         * The tasks are started outside of the lock: an async crawler may
+         * complete a fetch at once, in the same thread
+         */
+        void dispatch() {
+            for (Task task : takeStartable()) {
+                start(this, task);
+            }
+        }
+
+        private synchronized List<Task> takeStartable() {
+            List<Task> startable = new ArrayList<>();
+            while (running < maxPerHost && !pending.isEmpty()) {
+                if (pending.peek().cancelled) {
+                    pending.poll();
+                    continue;
+                }
+
+                long now = System.currentTimeMillis();
+                long wait = nextStart - now;
+                if (wait > 0) {
+                    scheduleWakeUp(wait);
+                    break;
+                }
+
+                startable.add(pending.poll());
+                running++;
+                nextStart = now + delay;
+            }
+            return startable;
+        }
+
+        private void scheduleWakeUp(long wait) {
+            if (wakeUpScheduled) {
+                return;
+            }
+            wakeUpScheduled = true;
+            timer.schedule(this::wakeUp, wait, TimeUnit.MILLISECONDS);
+        }
+
+        private void wakeUp() {
+            synchronized (this) {
+                wakeUpScheduled = false;
+            }
+            dispatch();
+            cleanUpWhenIdle();
+        }
+
+        void finished() {
+            synchronized (this) {
+                running--;
+            }
+            dispatch();
+            cleanUpWhenIdle();
+        }
+
+        private void cleanUpWhenIdle() {
+            long wait;
+            synchronized (this) {
+                if (!pending.isEmpty() || running > 0 || wakeUpScheduled) {
+                    return;
+                }
+                wait = nextStart - System.currentTimeMillis();
+            }
+            if (wait > 0) {
+                timer.schedule(() -> removeIfIdle(this), wait, TimeUnit.MILLISECONDS);
+            } else {
+                removeIfIdle(this);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+package crawler.crawlers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.phantomjs.PhantomJSDriver;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import com.google.common.base.Splitter;
+
+/**
+ * Stops PhantomJS from downloading sub-resources whose content is thrown
+ * away anyway: the resources of the blocked types, recognized by their
+ * extension, and everything served from the blocked domains or their
+ * subdomains.
+ */
+public class ResourceBlocking {
+
+    private static final Splitter COMMA = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    private static final String ABORT_BLOCKED = "var page = this;"
+            + "var extensions = arguments[0];"
+            + "var domains = arguments[1];"
+            + "var previous = page.onResourceRequested;"
+            + "page.onResourceRequested = function(request, network) {"
+            + "  var match = /^https?:\\/\\/([^\\/:?#]+)[^\\/?#]*([^?#]*)/i.exec(request.url);"
+            + "  if (match) {"
+            + "    var host = match[1].toLowerCase();"
+            + "    var path = match[2].toLowerCase();"
+            + "    var dot = path.lastIndexOf('.');"
+            + "    var extension = dot > path.lastIndexOf('/') ? path.substring(dot + 1) : '';"
+            + "    var blocked = extension !== '' && extensions.indexOf(extension) >= 0;"
+            + "    for (var i = 0; !blocked && i < domains.length; i++) {"
+            + "      var domain = domains[i];"
+            + "      blocked = host === domain || host.slice(-domain.length - 1) === '.' + domain;"
+            + "    }"
+            + "    if (blocked) {"
+            + "      network.abort();"
+            + "      return;"
+            + "    }"
+            + "  }"
+            + "  if (previous) {"
+            + "    previous.apply(page, arguments);"
+            + "  }"
+            + "};";
+
+    public enum ResourceType {
+        IMAGE("png", "jpg", "jpeg", "gif", "webp", "svg", "ico", "bmp"),
+        FONT("woff", "woff2", "ttf", "otf", "eot"),
+        STYLESHEET("css"),
+        MEDIA("mp4", "webm", "ogg", "mp3", "wav", "avi", "mov", "flv", "swf");
+
+        private final List<String> extensions;
+
+        private ResourceType(String... extensions) {
+            this.extensions = Arrays.asList(extensions);
+        }
+    }
+
+    private final Set<ResourceType> types;
+    private final List<String> domains;
+
+    public ResourceBlocking(Set<ResourceType> types, List<String> domains) {
+        this.types = types;
+        this.domains = domains;
+    }
+
+    public static ResourceBlocking none() {
+        return new ResourceBlocking(EnumSet.noneOf(ResourceType.class), new ArrayList<>());
+    }
+
+    /**
+     * @param types comma separated resource types, e.g. "image,font"
+     * @param domains comma separated domains
+     */
+    public static ResourceBlocking of(String types, String domains) {
+        Set<ResourceType> blockedTypes = EnumSet.noneOf(ResourceType.class);
+        for (String type : COMMA.split(types)) {
+            blockedTypes.add(ResourceType.valueOf(type.toUpperCase(Locale.ENGLISH)));
+        }
+
+        List<String> blockedDomains = new ArrayList<>();
+        for (String domain : COMMA.split(domains)) {
+            blockedDomains.add(domain.toLowerCase(Locale.ENGLISH));
+        }
+
+        return new ResourceBlocking(blockedTypes, blockedDomains);
+    }
+
+    void configure(DesiredCapabilities capabilities) {
+        if (types.contains(ResourceType.IMAGE)) {
+            // images are then not even requested, so they do not reach the callback below
+            capabilities.setCapability("phantomjs.page.settings.loadImages", false);
+        }
+    }
+
+    /**
+     * Called once for every new driver, before {@link PageReadiness#prepare}
+     */
+    void prepare(WebDriver driver) {
+        if (types.isEmpty() && domains.isEmpty()) {
+            return;
+        }
+        if (!(driver instanceof PhantomJSDriver)) {
+            return;
+        }
+
+        List<String> extensions = new ArrayList<>();
+        for (ResourceType type : types) {
+            extensions.addAll(type.extensions);
+        }
+        ((PhantomJSDriver) driver).executePhantomJS(ABORT_BLOCKED, extensions, domains);
+    }
+
+}
@@ -0,0 +1,35 @@
+package crawler.crawlers;
+
+import java.net.URI;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Url helpers shared by the crawlers that group urls by host.
+ */
+final class Urls {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Urls.class);
+
+    private Urls() {
+    }
+
+    /**
+     * @return the lower-cased host of the url, or the url itself if it has
+     *         no host
+     */
+    static String host(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            if (host != null) {
+                return host.toLowerCase(Locale.ENGLISH);
+            }
+        } catch (IllegalArgumentException e) {
+            LOGGER.debug("cannot extract host from {}", url);
+        }
+        return url;
+    }
+
+}
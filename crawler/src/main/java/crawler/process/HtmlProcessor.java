@@ -1,86 +1,32 @@
 package crawler.process;
 
+import java.util.Set;
+
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.nodes.Node;
-import org.jsoup.select.Elements;
 import org.springframework.stereotype.Service;
 
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ListMultimap;
+import com.google.common.collect.ImmutableSet;
+
+import crawler.model.ProcessedHtml;
 
 @Service
 public class HtmlProcessor {
-    private static final String TAGS_TO_REMOVE = "iframe, embed, script, noscript, nobr, "
-            + "style, link, img, source, wbr, area, base, param";
+    /** Bump it when the output of clean() or process() changes, so cached results are recomputed */
+    public static final int VERSION = 3;
+
+    static final Set<String> REMOVED_TAGS = ImmutableSet.of("iframe", "embed", "script", "noscript", "nobr",
+            "style", "link", "img", "source", "wbr", "area", "base", "param");
 
     public String clean(String html) {
-        Document doc = Jsoup.parse(html);
-        doc.select(TAGS_TO_REMOVE).remove();
-        removeComments(doc);
-        return doc.outerHtml();
+        return StreamingHtmlCleaner.clean(html);
     }
 
     public ProcessedHtml process(String html) {
         Document doc = Jsoup.parse(html);
-        String title = doc.title();
-
-        ProcessedHtml result = new ProcessedHtml();
-        result.setTitle(title);
-
-        Elements description = doc.select("meta[name=description]");
-        if (!description.isEmpty()) {
-            String metaContent = description.attr("content");
-            result.setMetaContent(metaContent);
-        }
-
-        Elements keywords = doc.select("meta[name=keywords]");
-        if (!keywords.isEmpty()) {
-            String metaKeywords = keywords.attr("content");
-            result.setMetaKeywords(metaKeywords);
-        }
-
-        doc.select(TAGS_TO_REMOVE).remove();
-
-        String bodyHtml = doc.select("body").outerHtml();
-        Document body = Jsoup.parse(bodyHtml);
-
-        JsoupTextExtractor visitor = new JsoupTextExtractor();
-        body.traverse(visitor);
-        String content = visitor.getText();
-        result.setContent(content);
-
-        ListMultimap<String, String> tags = ArrayListMultimap.create();
-        Elements headers = body.select("h1, h2, h3, h4, h5, h6");
-        for (Element htag : headers) {
-            String tagName = htag.nodeName().toLowerCase();
-            String text = htag.text().trim();
-            if (!text.isEmpty()) {
-                tags.put(tagName, text);
-            }
-        }
-
-        result.setH1(tags.get("h1"));
-        result.setH2(tags.get("h2"));
-        result.setH3(tags.get("h3"));
-        result.setH4(tags.get("h4"));
-        result.setH5(tags.get("h5"));
-        result.setH6(tags.get("h6"));
-
-        return result;
-    }
-
-    private static void removeComments(Node node) {
-        for (int i = 0; i < node.childNodes().size();) {
-            Node child = node.childNode(i);
-            if (child.nodeName().equals("#comment"))
-                child.remove();
-            else {
-                removeComments(child);
-                i++;
-            }
-        }
+        ProcessingVisitor visitor = new ProcessingVisitor();
+        doc.traverse(visitor);
+        return visitor.result();
     }
 
 }
@@ -1,15 +1,12 @@
 package crawler.process;
 
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
-import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.text.translate.AggregateTranslator;
-import org.apache.commons.lang3.text.translate.CharSequenceTranslator;
 import org.apache.commons.lang3.text.translate.EntityArrays;
-import org.apache.commons.lang3.text.translate.LookupTranslator;
 import org.jsoup.nodes.Element;
 import org.jsoup.nodes.Node;
 import org.jsoup.nodes.TextNode;
@@ -17,10 +14,15 @@ import org.jsoup.select.NodeVisitor;
 
 import com.google.common.collect.ImmutableSet;
 
+/**
+ * Extracts the text of a document block by block. The text nodes are
+ * normalized in one pass straight into the output buffer: whitespace is
+ * collapsed, the characters from {@code UNICODE_TRANSLATION} are replaced
+ * and the escaped entities that are left in the text are unescaped. The
+ * blocks are separated with a new line in the buffer, so no marker needs to
+ * be split away afterwards.
+ */
 public class JsoupTextExtractor implements NodeVisitor {
-    public static final String BLOCK_SEPARATOR = "[::new_line::]";
-    public static final Pattern BLOCK_SEPARATOR_PATTERN = Pattern.compile(Pattern.quote(BLOCK_SEPARATOR));
-
     private static final CharSequence[][] UNICODE_TRANSLATION = { 
             { "\u00A0", " " }, { "\u00AB", "\"" }, { "\u00AD", "-" }, { "\u00B4", "'" }, { "\u00BB", "\"" },
             { "\u00F7", "/" }, { "\u01C0", "|" }, { "\u01C3", "!" }, { "\u02B9", "'" }, { "\u02BA", "\"" },
@@ -50,35 +52,50 @@ public class JsoupTextExtractor implements NodeVisitor {
             { "\u038D", " " }, 
     };
 
-    private static final CharSequenceTranslator TRANSLATOR = new AggregateTranslator(
-            new LookupTranslator(UNICODE_TRANSLATION), new LookupTranslator(EntityArrays.ISO8859_1_UNESCAPE()),
-            new LookupTranslator(EntityArrays.BASIC_UNESCAPE()),
-            new LookupTranslator(EntityArrays.HTML40_EXTENDED_UNESCAPE()));
+    private static final char[] TRANSLATED_CHARS;
+    private static final String[] TRANSLATIONS;
+
+    static {
+        CharSequence[][] sorted = UNICODE_TRANSLATION.clone();
+        Arrays.sort(sorted, Comparator.comparing(pair -> pair[0].charAt(0)));
 
-    private static final Pattern WHITESPACE = Pattern.compile("[\u00A0\\s]+", Pattern.DOTALL);
+        TRANSLATED_CHARS = new char[sorted.length];
+        TRANSLATIONS = new String[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            TRANSLATED_CHARS[i] = sorted[i][0].charAt(0);
+            TRANSLATIONS[i] = sorted[i][1].toString();
+        }
+    }
+
+    private static final Map<String, String> ENTITIES = new HashMap<>();
+    private static final int MAX_ENTITY_LENGTH;
+
+    static {
+        CharSequence[][][] tables = { EntityArrays.ISO8859_1_UNESCAPE(), EntityArrays.BASIC_UNESCAPE(),
+                EntityArrays.HTML40_EXTENDED_UNESCAPE() };
+        int maxLength = 0;
+        for (CharSequence[][] table : tables) {
+            for (CharSequence[] pair : table) {
+                ENTITIES.putIfAbsent(pair[0].toString(), pair[1].toString());
+                maxLength = Math.max(maxLength, pair[0].length());
+            }
+        }
+        MAX_ENTITY_LENGTH = maxLength;
+    }
 
     public static final Set<String> BLOCK_TAGS = ImmutableSet.of("h1", "h2", "h3", "h4", "h5", "h6", "p", "li", "ol",
             "br", "hr", "tr", "td", "div", "pre", "option");
 
+    private static final char NEW_LINE = '\n';
+
     private final StringBuilder allText = new StringBuilder(100);
+    private int blockStart = 0;
 
     @Override
     public void head(Node node, int depth) {
         if (node instanceof TextNode) {
             TextNode textNode = (TextNode) node;
-            String text = textNode.getWholeText();
-            text = text.trim();
-            if (text.isEmpty()) {
-                return;
-            }
-
-            text = WHITESPACE.matcher(text).replaceAll(" ").trim();
-            if (text.isEmpty()) {
-                return;
-            }
-
-            text = TRANSLATOR.translate(text);
-            allText.append(text).append(" ");
+            append(textNode.getWholeText());
         }
     }
 
@@ -90,21 +107,126 @@ public class JsoupTextExtractor implements NodeVisitor {
             if (!BLOCK_TAGS.contains(tagName)) {
                 return;
             }
-            allText.append(BLOCK_SEPARATOR);
+            endBlock();
         }
     }
 
+    void append(String text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && isTrimmed(text.charAt(start))) {
+            start++;
+        }
+        while (end > start && isTrimmed(text.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+
+        boolean space = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+
+            if (space) {
+                allText.append(' ');
+                space = false;
+            }
+
+            if (c == '&') {
+                i = appendEntity(text, i, end);
+            } else {
+                appendTranslated(c);
+            }
+        }
+
+        allText.append(' ');
+    }
+
+    /**
+     * @return the index of the last consumed char
+     */
+    private int appendEntity(String text, int ampersand, int end) {
+        int limit = Math.min(end, ampersand + MAX_ENTITY_LENGTH);
+        for (int i = ampersand + 1; i < limit; i++) {
+            char c = text.charAt(i);
+            if (c == ';') {
+                String unescaped = ENTITIES.get(text.substring(ampersand, i + 1));
+                if (unescaped != null) {
+                    allText.append(unescaped);
+                    return i;
+                }
+                break;
+            }
+            if (isWhitespace(c)) {
+                break;
+            }
+        }
+
+        allText.append('&');
+        return ampersand;
+    }
+
+    private void appendTranslated(char c) {
+        if (c >= ' ' && c < 0x7F) {
+            allText.append(c);
+            return;
+        }
+
+        int index = Arrays.binarySearch(TRANSLATED_CHARS, c);
+        if (index >= 0) {
+            allText.append(TRANSLATIONS[index]);
+        } else {
+            allText.append(c);
+        }
+    }
+
+    private void endBlock() {
+        int start = blockStart;
+        int end = allText.length();
+        while (start < end && allText.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && allText.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        if (start == end) {
+            allText.setLength(blockStart);
+            return;
+        }
+
+        allText.setLength(end);
+        if (start > blockStart) {
+            allText.delete(blockStart, start);
+        }
+        allText.append(NEW_LINE);
+        blockStart = allText.length();
+    }
+
+    private static boolean isTrimmed(char c) {
+        return c <= ' ' || c == '\u00A0';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r' || c == '\u00A0';
+    }
 
     public String getText() {
         return getText("\n");
     }
 
     public String getText(String newLineSeparator) {
-        String text = allText.toString();
-        String[] split = BLOCK_SEPARATOR_PATTERN.split(text);
-        return Arrays.stream(split)
-                .map(String::trim)
-                .filter(StringUtils::isNotEmpty)
-                .collect(Collectors.joining(newLineSeparator));
+        endBlock();
+        int length = Math.max(0, allText.length() - 1);
+        String text = allText.substring(0, length);
+        if (newLineSeparator.equals("\n")) {
+            return text;
+        }
+        return text.replace("\n", newLineSeparator);
     }
 }
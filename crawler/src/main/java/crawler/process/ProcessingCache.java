@@ -0,0 +1,129 @@
+package crawler.process;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import crawler.model.ProcessedHtml;
+
+/**
+ * Keeps the results of {@link HtmlProcessor} per url, so hot pages are not
+ * parsed again on every request. The entries are keyed by the url, the hash
+ * of the html they were computed from and the version of the processor: the
+ * js and the non-js page of the same url are kept side by side, and when the
+ * raw html of the url changes, or the processor is changed, the result is
+ * recomputed under a new key while the old entry ages out.
+ */
+public class ProcessingCache {
+
+    private static final HashFunction HASHING = Hashing.murmur3_128();
+
+    private final HtmlProcessor processor;
+    private final Cache<Key, Entry<String>> cleaned;
+    private final Cache<Key, Entry<ProcessedHtml>> processed;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ProcessingCache(HtmlProcessor processor, long maxBytes) {
+        this.processor = processor;
+        this.cleaned = createCache(maxBytes / 2);
+        this.processed = createCache(maxBytes / 2);
+    }
+
+    private static <V> Cache<Key, Entry<V>> createCache(long maxBytes) {
+        return CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((Key key, Entry<V> entry) -> 2 * key.url.length() + entry.weight)
+                .build();
+    }
+
+    public String clean(String url, String html) {
+        return get(cleaned, url, html, processor::clean, String::length);
+    }
+
+    public ProcessedHtml process(String url, String html) {
+        return get(processed, url, html, processor::process, ProcessingCache::length);
+    }
+
+    private <V> V get(Cache<Key, Entry<V>> cache, String url, String html, Function<String, V> compute,
+            Function<V, Integer> length) {
+        Key key = new Key(url, HASHING.hashUnencodedChars(html));
+        Entry<V> entry = cache.getIfPresent(key);
+        if (entry != null) {
+            hits.incrementAndGet();
+            return entry.value;
+        }
+
+        misses.incrementAndGet();
+        V value = compute.apply(html);
+        cache.put(key, new Entry<>(value, 2 * length.apply(value)));
+        return value;
+    }
+
+    private static int length(ProcessedHtml processed) {
+        int length = 0;
+        length = length + lengthOf(processed.getTitle());
+        length = length + lengthOf(processed.getContent());
+        length = length + lengthOf(processed.getMetaContent());
+        length = length + lengthOf(processed.getMetaKeywords());
+        return length;
+    }
+
+    private static int lengthOf(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("cleaned.size", cleaned.size());
+        stats.put("processed.size", processed.size());
+        return stats;
+    }
+
+    private static final class Key {
+        private final String url;
+        private final HashCode hash;
+        private final int version;
+
+        private Key(String url, HashCode hash) {
+            this.url = url;
+            this.hash = hash;
+            this.version = HtmlProcessor.VERSION;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return url.equals(other.url) && hash.equals(other.hash) && version == other.version;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash.hashCode();
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final int weight;
+
+        private Entry(V value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+package crawler.process;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeVisitor;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ListMultimap;
+
+import crawler.model.ProcessedHtml;
+
+/**
+ * Collects everything {@link HtmlProcessor#process(String)} needs in one
+ * traversal of the parsed document: the title and meta tags from the whole
+ * document, the text and the headings from the body. The elements that
+ * {@code process} drops are not removed from the tree, their content is
+ * just not taken into account, and the text on both sides of them is joined.
+ */
+class ProcessingVisitor implements NodeVisitor {
+
+    private static final Set<String> HEADINGS = ImmutableSet.of("h1", "h2", "h3", "h4", "h5", "h6");
+
+    private final JsoupTextExtractor text = new JsoupTextExtractor();
+    private final ListMultimap<String, String> headings = ArrayListMultimap.create();
+    private final Deque<Heading> openHeadings = new ArrayDeque<>();
+    private final StringBuilder pendingText = new StringBuilder();
+
+    private String title;
+    private String metaContent;
+    private String metaKeywords;
+
+    private int bodyDepth = 0;
+    private int skippedDepth = 0;
+
+    @Override
+    public void head(Node node, int depth) {
+        if (node instanceof TextNode) {
+            if (inContent()) {
+                pendingText.append(((TextNode) node).getWholeText());
+            }
+            return;
+        }
+
+        if (!(node instanceof Element)) {
+            // comments still split the text around them
+            if (inContent()) {
+                flushText();
+            }
+            return;
+        }
+
+        Element element = (Element) node;
+        String tagName = element.tagName().toLowerCase();
+
+        if (title == null && "title".equals(tagName)) {
+            title = normalizeWhitespace(element.text());
+        } else if ("meta".equals(tagName)) {
+            collectMeta(element);
+        } else if ("body".equals(tagName)) {
+            bodyDepth++;
+        }
+
+        if (HtmlProcessor.REMOVED_TAGS.contains(tagName)) {
+            skippedDepth++;
+            return;
+        }
+
+        if (!inContent()) {
+            return;
+        }
+
+        flushText();
+        if (element.isBlock() || "br".equals(tagName)) {
+            appendToHeadings(" ");
+        }
+        if (HEADINGS.contains(tagName)) {
+            openHeadings.push(new Heading(element));
+        }
+    }
+
+    @Override
+    public void tail(Node node, int depth) {
+        if (!(node instanceof Element)) {
+            return;
+        }
+
+        Element element = (Element) node;
+        String tagName = element.tagName().toLowerCase();
+
+        if (HtmlProcessor.REMOVED_TAGS.contains(tagName)) {
+            skippedDepth--;
+        } else if (inContent()) {
+            flushText();
+            text.tail(node, depth);
+            if (!openHeadings.isEmpty() && openHeadings.peek().element == element) {
+                closeHeading(tagName, openHeadings.pop());
+            }
+        }
+
+        if ("body".equals(tagName)) {
+            bodyDepth--;
+        }
+    }
+
+    /**
+     * Passes the text collected since the last element boundary on as one
+     * piece: the text on both sides of a dropped element is joined, as if the
+     * element was removed from the tree.
+     */
+    private void flushText() {
+        if (pendingText.length() == 0) {
+            return;
+        }
+        String value = pendingText.toString();
+        pendingText.setLength(0);
+        text.append(value);
+        appendToHeadings(value);
+    }
+
+    private boolean inContent() {
+        return bodyDepth > 0 && skippedDepth == 0;
+    }
+
+    private void collectMeta(Element meta) {
+        if (!meta.hasAttr("content")) {
+            return;
+        }
+
+        String name = meta.attr("name");
+        if (metaContent == null && "description".equalsIgnoreCase(name)) {
+            metaContent = meta.attr("content");
+        } else if (metaKeywords == null && "keywords".equalsIgnoreCase(name)) {
+            metaKeywords = meta.attr("content");
+        }
+    }
+
+    private void appendToHeadings(String value) {
+        for (Heading heading : openHeadings) {
+            heading.text.append(value);
+        }
+    }
+
+    private void closeHeading(String tagName, Heading heading) {
+        String text = normalizeWhitespace(heading.text);
+        if (!text.isEmpty()) {
+            headings.put(tagName, text);
+        }
+    }
+
+    private static String normalizeWhitespace(CharSequence text) {
+        StringBuilder result = new StringBuilder(text.length());
+        boolean lastWasSpace = true;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || c == '\u00A0') {
+                if (!lastWasSpace) {
+                    result.append(' ');
+                    lastWasSpace = true;
+                }
+            } else {
+                result.append(c);
+                lastWasSpace = false;
+            }
+        }
+        return result.toString().trim();
+    }
+
+    public ProcessedHtml result() {
+        ProcessedHtml result = new ProcessedHtml();
+        result.setTitle(title == null ? "" : title);
+        if (metaContent != null) {
+            result.setMetaContent(metaContent);
+        }
+        if (metaKeywords != null) {
+            result.setMetaKeywords(metaKeywords);
+        }
+
+        result.setContent(text.getText());
+
+        result.setH1(headingsOf("h1"));
+        result.setH2(headingsOf("h2"));
+        result.setH3(headingsOf("h3"));
+        result.setH4(headingsOf("h4"));
+        result.setH5(headingsOf("h5"));
+        result.setH6(headingsOf("h6"));
+        return result;
+    }
+
+    private List<String> headingsOf(String tagName) {
+        return new ArrayList<>(headings.get(tagName));
+    }
+
+    private static final class Heading {
+        private final Element element;
+        private final StringBuilder text = new StringBuilder();
+
+        private Heading(Element element) {
+            this.element = element;
+        }
+    }
+
+}
@@ -0,0 +1,260 @@
+package crawler.process;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Removes comments and the {@link HtmlProcessor#REMOVED_TAGS} elements
+ * together with their content from html without building a DOM: the input
+ * is scanned once, and everything that is kept is copied to the output as
+ * it is. Unlike the Jsoup based cleaning the markup is not normalized or
+ * pretty printed.
+ */
+class StreamingHtmlCleaner {
+
+    private static final Set<String> VOID_TAGS = ImmutableSet.of("area", "base", "br", "col", "embed", "hr", "img",
+            "input", "keygen", "link", "meta", "param", "source", "track", "wbr");
+    /** the content of these tags is never markup, so it is skipped until the closing tag */
+    private static final Set<String> RAW_TEXT_TAGS = ImmutableSet.of("iframe", "script", "style", "noembed",
+            "noframes", "xmp");
+    /** the content of these tags is text, it is kept as it is until the closing tag */
+    private static final Set<String> KEPT_TEXT_TAGS = ImmutableSet.of("title", "textarea");
+    /** only the innermost open elements are tracked, so the memory does not depend on the page */
+    private static final int MAX_OPEN_ELEMENTS = 256;
+
+    private final String html;
+    private final StringBuilder out;
+    /** the names of the kept elements that are not closed yet, the innermost first */
+    private final Deque<String> openElements = new ArrayDeque<>();
+    private int pos = 0;
+
+    private StreamingHtmlCleaner(String html) {
+        this.html = html;
+        this.out = new StringBuilder(html.length());
+    }
+
+    public static String clean(String html) {
+        StreamingHtmlCleaner cleaner = new StreamingHtmlCleaner(html);
+        cleaner.run();
+        return cleaner.out.toString();
+    }
+
+    private void run() {
+        int length = html.length();
+        while (pos < length) {
+            int lt = html.indexOf('<', pos);
+            if (lt < 0) {
+                out.append(html, pos, length);
+                return;
+            }
+
+            out.append(html, pos, lt);
+            pos = lt;
+
+            if (html.startsWith("<!--", pos)) {
+                skipComment();
+            } else if (isTagStart(pos + 1)) {
+                openTag();
+            } else if (html.startsWith("</", pos) && isTagStart(pos + 2)) {
+                closeTag();
+            } else {
+                out.append('<');
+                pos++;
+            }
+        }
+    }
+
+    private void skipComment() {
+        int end = html.indexOf("-->", pos + 4);
+        pos = end < 0 ? html.length() : end + 3;
+    }
+
+    private void openTag() {
+        String name = tagName(pos + 1);
+        int end = tagEnd(pos);
+        boolean selfClosing = html.charAt(end - 2) == '/' && end - 2 > pos;
+
+        if (!HtmlProcessor.REMOVED_TAGS.contains(name)) {
+            out.append(html, pos, end);
+            pos = end;
+            if (!VOID_TAGS.contains(name) && !selfClosing) {
+                opened(name);
+            }
+            if (KEPT_TEXT_TAGS.contains(name)) {
+                int close = closingTag(name, pos);
+                out.append(html, pos, close);
+                pos = close;
+            }
+            return;
+        }
+
+        pos = end;
+        if (VOID_TAGS.contains(name) || selfClosing) {
+            return;
+        }
+
+        if (RAW_TEXT_TAGS.contains(name)) {
+            int close = closingTag(name, pos);
+            pos = close < html.length() ? tagEnd(close) : close;
+        } else {
+            skipElement(name);
+        }
+    }
+
+    private void closeTag() {
+        String name = tagName(pos + 2);
+        int end = tagEnd(pos);
+        if (!HtmlProcessor.REMOVED_TAGS.contains(name)) {
+            out.append(html, pos, end);
+            closed(name);
+        }
+        pos = end;
+    }
+
+    private void opened(String name) {
+        openElements.push(name);
+        if (openElements.size() > MAX_OPEN_ELEMENTS) {
+            openElements.removeLast();
+        }
+    }
+
+    /**
+     * A closing tag also closes the elements opened inside it and left open
+     */
+    private void closed(String name) {
+        if (!openElements.contains(name)) {
+            return;
+        }
+        while (!name.equals(openElements.pop())) {
+            // the unclosed elements are implicitly closed
+        }
+    }
+
+    /**
+     * @return true if the closing tag of {@code name} ends the elements that
+     *         are open, as the closing tag of a parent, or of the body, does
+     */
+    private boolean closesOpenElement(String name) {
+        return "body".equals(name) || "html".equals(name) || openElements.contains(name);
+    }
+
+    /**
+     * Skips the content of an element that may contain markup, such as
+     * noscript, up to its closing tag, taking nested elements with the same
+     * name into account. Like in the tree builder, an element that is not
+     * closed ends at the closing tag of its parent or of the body, which is
+     * then kept.
+     */
+    private void skipElement(String name) {
+        int depth = 1;
+        int length = html.length();
+        while (pos < length) {
+            int lt = html.indexOf('<', pos);
+            if (lt < 0) {
+                pos = length;
+                return;
+            }
+
+            pos = lt;
+            if (html.startsWith("<!--", pos)) {
+                skipComment();
+            } else if (isTagStart(pos + 1) && name.equals(tagName(pos + 1))) {
+                depth++;
+                pos = tagEnd(pos);
+            } else if (html.startsWith("</", pos) && isTagStart(pos + 2)) {
+                String closing = tagName(pos + 2);
+                if (name.equals(closing)) {
+                    depth--;
+                    pos = tagEnd(pos);
+                    if (depth == 0) {
+                        return;
+                    }
+                } else if (closesOpenElement(closing)) {
+                    return;
+                } else {
+                    pos = tagEnd(pos);
+                }
+            } else {
+                pos++;
+            }
+        }
+    }
+
+    private boolean isTagStart(int index) {
+        if (index >= html.length()) {
+            return false;
+        }
+        char c = html.charAt(index);
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private String tagName(int start) {
+        int end = start;
+        int length = html.length();
+        while (end < length) {
+            char c = html.charAt(end);
+            if (Character.isWhitespace(c) || c == '/' || c == '>') {
+                break;
+            }
+            end++;
+        }
+        return html.substring(start, end).toLowerCase();
+    }
+
+    /**
+     * @return the index right after the '>' that closes the tag starting at
+     *         {@code start}, the quoted attribute values are skipped. A quote
+     *         only starts a value right after '=', elsewhere it is a part of
+     *         a name or of an unquoted value, as in {@code alt=it's}
+     */
+    private int tagEnd(int start) {
+        int length = html.length();
+        char quote = 0;
+        boolean afterEquals = false;
+        for (int i = start + 1; i < length; i++) {
+            char c = html.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '>') {
+                return i + 1;
+            } else if (c == '=') {
+                afterEquals = true;
+            } else if (Character.isWhitespace(c)) {
+                continue;
+            } else if (afterEquals && (c == '"' || c == '\'')) {
+                quote = c;
+                afterEquals = false;
+            } else {
+                afterEquals = false;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return the index of the closing tag of {@code name} after
+     *         {@code from}, or the end of the input if it is not closed
+     */
+    private int closingTag(String name, int from) {
+        int length = html.length();
+        int i = from;
+        while (i < length) {
+            int lt = html.indexOf("</", i);
+            if (lt < 0) {
+                return length;
+            }
+            int afterName = lt + 2 + name.length();
+            if (html.regionMatches(true, lt + 2, name, 0, name.length()) && !isTagStart(afterName)) {
+                return lt;
+            }
+            i = lt + 2;
+        }
+        return length;
+    }
+
+}
@@ -0,0 +1,54 @@
+package crawler;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Saved html pages for the benchmarks: every .html file under the directory
+ * given by -Dcorpus (corpus/ by default, see download-corpus.sh). Several
+ * directories are separated like in a classpath.
+ */
+public class Corpus {
+
+    public static Map<String, String> load() throws IOException {
+        String dirs = System.getProperty("corpus", "corpus");
+        List<File> files = new ArrayList<>();
+        for (String path : dirs.split(File.pathSeparator)) {
+            File dir = new File(path);
+            if (!dir.isDirectory()) {
+                throw new IllegalStateException("no corpus at " + dir.getAbsolutePath()
+                        + ", run download-corpus.sh or pass -Dcorpus=<dirs with html files>");
+            }
+            files.addAll(FileUtils.listFiles(dir, new String[] { "html", "htm" }, true));
+        }
+        files.sort(null);
+
+        Map<String, String> pages = new LinkedHashMap<>();
+        for (File file : files) {
+            String url = "http://corpus" + file.getAbsolutePath();
+            pages.put(url, FileUtils.readFileToString(file, StandardCharsets.UTF_8));
+        }
+
+        if (pages.isEmpty()) {
+            throw new IllegalStateException("no html files in " + dirs);
+        }
+        return pages;
+    }
+
+    public static long totalLength(Collection<String> pages) {
+        long length = 0;
+        for (String html : pages) {
+            length = length + html.length();
+        }
+        return length;
+    }
+
+}
@@ -0,0 +1,186 @@
+package crawler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import crawler.crawlers.Crawler;
+import crawler.crawlers.Page;
+import crawler.process.HtmlProcessor;
+import crawler.process.ProcessingCache;
+
+public class CrawlerControllerTest {
+
+    private final ExecutorService processingExecutor = Executors.newFixedThreadPool(4);
+    private final ExecutorService streamingExecutor = Executors.newCachedThreadPool();
+
+    @After
+    public void shutdownExecutors() {
+        processingExecutor.shutdownNow();
+        streamingExecutor.shutdownNow();
+    }
+
+    @Test
+    public void writesStreamFromRequestThread() throws Exception {
+        Crawler crawler = new StaticCrawler();
+        ProcessingCache processingCache = new ProcessingCache(new HtmlProcessor(), 1024 * 1024);
+        CrawlerController controller = new CrawlerController(crawler, crawler, crawler, processingCache,
+                processingExecutor, streamingExecutor);
+
+        Set<Thread> writers = new HashSet<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                writers.add(Thread.currentThread());
+                super.write(b, off, len);
+            }
+
+            @Override
+            public synchronized void write(int b) {
+                writers.add(Thread.currentThread());
+                super.write(b);
+            }
+        };
+
+        controller.streamProcessed("http://a.com/1;http://a.com/2;http://a.com/3", "false").writeTo(out);
+
+        assertEquals(new HashSet<>(Arrays.asList(Thread.currentThread())), writers);
+
+        ObjectMapper mapper = new ObjectMapper();
+        Set<String> urls = new HashSet<>();
+        for (String line : out.toString("UTF-8").split("\n")) {
+            urls.add(mapper.readTree(line).get("url").asText());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("http://a.com/1", "http://a.com/2", "http://a.com/3")), urls);
+    }
+
+    @Test
+    public void slowClientHoldsBackCrawl() throws Exception {
+        CountingCrawler crawler = new CountingCrawler();
+        CrawlerController controller = controller(crawler);
+        CountDownLatch clientReady = new CountDownLatch(1);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        OutputStream slowClient = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                try {
+                    clientReady.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                written.write(b);
+            }
+        };
+
+        Future<?> streaming = streamingExecutor.submit(() -> {
+            controller.streamHtml(crawler.urls(), "false").writeTo(slowClient);
+            return null;
+        });
+        Thread.sleep(500);
+
+        assertTrue("crawled " + crawler.crawled.get(), crawler.crawled.get() < CountingCrawler.PAGES / 2);
+        clientReady.countDown();
+        streaming.get(10, TimeUnit.SECONDS);
+        assertEquals(CountingCrawler.PAGES, written.toString("UTF-8").split("\n").length);
+    }
+
+    @Test
+    public void goneClientCancelsCrawl() throws Exception {
+        CountingCrawler crawler = new CountingCrawler();
+        OutputStream goneClient = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("broken pipe");
+            }
+        };
+
+        try {
+            controller(crawler).streamHtml(crawler.urls(), "false").writeTo(goneClient);
+            fail("the client is gone");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertTrue(crawler.finished.await(5, TimeUnit.SECONDS));
+        assertTrue("crawled " + crawler.crawled.get(), crawler.crawled.get() < CountingCrawler.PAGES / 2);
+    }
+
+    private CrawlerController controller(Crawler crawler) {
+        ProcessingCache processingCache = new ProcessingCache(new HtmlProcessor(), 1024 * 1024);
+        return new CrawlerController(crawler, crawler, crawler, processingCache, processingExecutor,
+                streamingExecutor);
+    }
+
+    /**
+     * Crawls its pages as fast as they are taken, until its thread is
+     * interrupted
+     */
+    private static class CountingCrawler extends StaticCrawler {
+        static final int PAGES = 1000;
+
+        final AtomicInteger crawled = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        String urls() {
+            List<String> urls = new ArrayList<>();
+            for (int i = 0; i < PAGES; i++) {
+                urls.add("http://a.com/" + i);
+            }
+            return String.join(";", urls);
+        }
+
+        @Override
+        public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+            try {
+                for (String url : urls) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    callback.accept(new Page(url, crawl(url).get()));
+                    crawled.incrementAndGet();
+                }
+            } finally {
+                finished.countDown();
+            }
+        }
+    }
+
+    private static class StaticCrawler implements Crawler {
+
+        @Override
+        public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+            for (String url : urls) {
+                callback.accept(new Page(url, crawl(url).get()));
+            }
+        }
+
+        @Override
+        public Optional<String> crawl(String url) {
+            return Optional.of("<html><body><p>" + url + "</p></body></html>");
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+package crawler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import crawler.model.ProcessedHtml;
+import crawler.process.HtmlProcessor;
+
+/**
+ * JMH benchmark of the formats the crawler answers the balancer in: json or
+ * Smile, each with or without gzip, for the crawled html (/crawl) and for
+ * the processed pages (/crawl_processed). encode is the cost on the
+ * crawler, decode the cost on the balancer; every operation is one batch of
+ * {@link #BATCH_SIZE} pages of the corpus, so the score is in batches per
+ * second. Before the benchmark, main prints the bytes on the wire of the
+ * whole corpus in every format. The pages are taken from -Dcorpus, see
+ * {@link Corpus}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    private static final int BATCH_SIZE = 20;
+
+    private static final TypeReference<Map<String, String>> MAP_STRING_STRING =
+            new TypeReference<Map<String, String>>() {};
+    private static final TypeReference<Map<String, ProcessedHtml>> MAP_STRING_PROCESSED_HTML =
+            new TypeReference<Map<String, ProcessedHtml>>() {};
+
+    @Param({ "json", "smile" })
+    public String format;
+
+    @Param({ "false", "true" })
+    public boolean gzip;
+
+    @Param({ "html", "processed" })
+    public String payload;
+
+    private ObjectMapper mapper;
+    private TypeReference<?> type;
+    private List<Map<String, ?>> batches;
+    private List<byte[]> encoded;
+    private int next = 0;
+
+    @Setup
+    public void load() throws Exception {
+        mapper = mapper(format);
+        type = "html".equals(payload) ? MAP_STRING_STRING : MAP_STRING_PROCESSED_HTML;
+        batches = batches(Corpus.load(), payload);
+        encoded = new ArrayList<>();
+        for (Map<String, ?> batch : batches) {
+            byte[] bytes = encode(mapper, gzip, batch);
+            if (!batch.keySet().equals(decode(bytes).keySet())) {
+                throw new IllegalStateException(format + " loses pages of " + batch.keySet());
+            }
+            encoded.add(bytes);
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        Map<String, ?> batch = batches.get(next);
+        next = (next + 1) % batches.size();
+        return encode(mapper, gzip, batch);
+    }
+
+    @Benchmark
+    public Map<String, ?> decode() throws IOException {
+        byte[] bytes = encoded.get(next);
+        next = (next + 1) % encoded.size();
+        return decode(bytes);
+    }
+
+    private Map<String, ?> decode(byte[] bytes) throws IOException {
+        InputStream in = new ByteArrayInputStream(bytes);
+        if (gzip) {
+            in = new GZIPInputStream(in);
+        }
+        return mapper.readValue(in, type);
+    }
+
+    private static ObjectMapper mapper(String format) {
+        return "smile".equals(format) ? new ObjectMapper(new SmileFactory()) : new ObjectMapper();
+    }
+
+    private static List<Map<String, ?>> batches(Map<String, String> corpus, String payload) {
+        HtmlProcessor processor = new HtmlProcessor();
+        List<Map<String, ?>> batches = new ArrayList<>();
+        Map<String, Object> batch = new LinkedHashMap<>();
+        for (Map.Entry<String, String> page : corpus.entrySet()) {
+            Object value = "html".equals(payload) ? page.getValue() : processor.process(page.getValue());
+            batch.put(page.getKey(), value);
+            if (batch.size() == BATCH_SIZE) {
+                batches.add(batch);
+                batch = new LinkedHashMap<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    private static byte[] encode(ObjectMapper mapper, boolean gzip, Object value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = gzip ? new GZIPOutputStream(bytes) : bytes) {
+            mapper.writeValue(out, value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void printSizes() throws IOException {
+        Map<String, String> corpus = Corpus.load();
+        System.out.printf("%d pages, %.1f MB of html%n", corpus.size(),
+                Corpus.totalLength(corpus.values()) / 1e6);
+        for (String payload : new String[] { "html", "processed" }) {
+            List<Map<String, ?>> batches = batches(corpus, payload);
+            for (String format : new String[] { "json", "smile" }) {
+                for (boolean gzip : new boolean[] { false, true }) {
+                    ObjectMapper mapper = mapper(format);
+                    long size = 0;
+                    for (Map<String, ?> batch : batches) {
+                        size = size + encode(mapper, gzip, batch).length;
+                    }
+                    System.out.printf("%-9s %-5s gzip=%-5s %8.2f MB on the wire%n", payload, format, gzip,
+                            size / 1e6);
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        printSizes();
+        Options options = new OptionsBuilder()
+                .include(WireFormatBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+
+}
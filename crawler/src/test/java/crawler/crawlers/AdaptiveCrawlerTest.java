@@ -0,0 +1,178 @@
+package crawler.crawlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+public class AdaptiveCrawlerTest {
+
+    private static final String STATIC_HTML = "<html><body><p>" + Strings.repeat("static text ", 50)
+            + "</p></body></html>";
+    private static final String SPA_HTML = "<html><body><div id=root></div></body></html>";
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final RecordingCrawler staticCrawler = new RecordingCrawler();
+    private final RecordingCrawler jsCrawler = new RecordingCrawler();
+    private final AdaptiveCrawler crawler = new AdaptiveCrawler(staticCrawler, jsCrawler, executor, 1, 5, 0.5);
+
+    @After
+    public void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void singleShortPageDoesNotDecideForHost() {
+        staticCrawler.pages.put("http://a.com/empty", SPA_HTML);
+        for (int i = 0; i < 5; i++) {
+            staticCrawler.pages.put("http://a.com/" + i, STATIC_HTML);
+        }
+
+        crawler.crawl(Arrays.asList("http://a.com/empty", "http://a.com/0", "http://a.com/1"));
+        assertEquals(Collections.singletonList("http://a.com/empty"), jsCrawler.crawled);
+
+        Map<String, String> result = crawler.crawl(Arrays.asList("http://a.com/2", "http://a.com/3"));
+        assertEquals(2, result.size());
+        assertEquals(Collections.singletonList("http://a.com/empty"), jsCrawler.crawled);
+    }
+
+    @Test
+    public void hostGoesToBrowserAfterEnoughSamples() {
+        for (int i = 0; i < 10; i++) {
+            staticCrawler.pages.put("http://spa.com/" + i, i < 3 ? SPA_HTML : STATIC_HTML);
+        }
+
+        // 3 of 5 pages need javascript
+        crawler.crawl(Arrays.asList("http://spa.com/0", "http://spa.com/1", "http://spa.com/2", "http://spa.com/3",
+                "http://spa.com/4"));
+        assertEquals(5, staticCrawler.crawled.size());
+
+        Map<String, String> result = crawler.crawl(Arrays.asList("http://spa.com/5", "http://spa.com/6"));
+
+        assertEquals(2, result.size());
+        assertEquals(5, staticCrawler.crawled.size());
+        assertTrue(jsCrawler.crawled.containsAll(Arrays.asList("http://spa.com/5", "http://spa.com/6")));
+        assertEquals(2L, crawler.stats().get("js"));
+        assertEquals(3L, crawler.stats().get("escalated"));
+    }
+
+    @Test
+    public void escalatesBeforeStaticBatchEnds() throws Exception {
+        CountDownLatch escalated = new CountDownLatch(1);
+        List<Boolean> escalatedInTime = new ArrayList<>();
+        Crawler slowStatic = new RecordingCrawler() {
+            @Override
+            public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+                callback.accept(new Page("http://b.com/spa", SPA_HTML));
+                try {
+                    // the rest of the batch is slow, the escalated page must not wait for it
+                    escalatedInTime.add(escalated.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                callback.accept(new Page("http://b.com/slow", STATIC_HTML));
+            }
+        };
+        Crawler js = new RecordingCrawler() {
+            @Override
+            public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+                escalated.countDown();
+                super.crawl(urls, previous, callback);
+            }
+        };
+
+        Map<String, String> result = new AdaptiveCrawler(slowStatic, js, executor, 1, 5, 0.5)
+                .crawl(Arrays.asList("http://b.com/spa", "http://b.com/slow"));
+
+        assertEquals(Collections.singletonList(true), escalatedInTime);
+        assertEquals(2, result.size());
+    }
+
+    @Test
+    public void cachedPageIsCountedOnce() {
+        Page spa = new Page("http://c.com/spa", SPA_HTML);
+        Crawler cache = new RecordingCrawler() {
+            @Override
+            public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+                for (String url : urls) {
+                    crawled.add(url);
+                    callback.accept(url.equals(spa.getUrl()) ? spa : new Page(url, STATIC_HTML));
+                }
+            }
+        };
+        AdaptiveCrawler crawler = new AdaptiveCrawler(cache, jsCrawler, executor, 1, 5, 0.5);
+
+        for (int i = 0; i < 5; i++) {
+            crawler.crawl(Collections.singletonList(spa.getUrl()));
+        }
+        Map<String, String> result = crawler.crawl(Collections.singletonList("http://c.com/page"));
+
+        // the same page from the cache is still escalated, but does not decide for the host
+        assertEquals(5L, crawler.stats().get("escalated"));
+        assertEquals(STATIC_HTML, result.get("http://c.com/page"));
+        assertEquals(Collections.nCopies(5, spa.getUrl()), jsCrawler.crawled);
+    }
+
+    @Test
+    public void staticHtmlIsReturnedWhenJsCrawlFails() {
+        staticCrawler.pages.put("http://d.com/spa", SPA_HTML);
+        staticCrawler.pages.put("http://d.com/other", SPA_HTML);
+        Crawler failing = new RecordingCrawler() {
+            @Override
+            public Optional<String> crawl(String url) {
+                return Optional.empty();
+            }
+
+            @Override
+            public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+                throw new IllegalStateException("phantomjs is gone");
+            }
+        };
+        AdaptiveCrawler crawler = new AdaptiveCrawler(staticCrawler, failing, executor, 1, 5, 0.5);
+
+        Map<String, String> result = crawler.crawl(Collections.singletonList("http://d.com/spa"));
+
+        assertEquals(SPA_HTML, result.get("http://d.com/spa"));
+        assertEquals(Optional.of(SPA_HTML), crawler.crawl("http://d.com/other"));
+        assertEquals(2L, crawler.stats().get("fallbacks"));
+    }
+
+    /**
+     * Serves the html of {@link #pages}, or a rendered page for any url if
+     * it is empty, and records the urls it crawled
+     */
+    private static class RecordingCrawler implements Crawler {
+        final Map<String, String> pages = new ConcurrentHashMap<>();
+        final List<String> crawled = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public Optional<String> crawl(String url) {
+            crawled.add(url);
+            return Optional.of(pages.isEmpty() ? "<html><body>rendered</body></html>" : pages.get(url));
+        }
+
+        @Override
+        public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+            for (String url : urls) {
+                callback.accept(new Page(url, crawl(url).get()));
+            }
+        }
+    }
+
+}
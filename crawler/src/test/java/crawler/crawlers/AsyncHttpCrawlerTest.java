@@ -0,0 +1,121 @@
+package crawler.crawlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Stopwatch;
+
+public class AsyncHttpCrawlerTest {
+
+    private static StubHttpServer server;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new StubHttpServer();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void crawlsAllUrlsOfBatch() throws Exception {
+        List<String> urls = urls("/batch/", 50, "");
+
+        try (AsyncHttpCrawler crawler = new AsyncHttpCrawler(5000, 100)) {
+            Map<String, String> result = crawler.crawl(urls);
+
+            assertEquals(50, result.size());
+            assertTrue(result.get(server.url("/batch/7")).contains("<title>/batch/7</title>"));
+        }
+    }
+
+    @Test
+    public void skipsUrlsThatTimeOut() throws Exception {
+        List<String> urls = urls("/fast/", 5, "");
+        urls.add(server.url("/slow?delay=5000"));
+
+        try (AsyncHttpCrawler crawler = new AsyncHttpCrawler(500, 100)) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            Map<String, String> result = crawler.crawl(urls);
+
+            assertEquals(5, result.size());
+            assertFalse(result.containsKey(server.url("/slow?delay=5000")));
+            assertTrue("took " + stopwatch, stopwatch.elapsed(TimeUnit.MILLISECONDS) < 2000);
+        }
+    }
+
+    @Test
+    public void crawlsSingleUrl() throws Exception {
+        try (AsyncHttpCrawler crawler = new AsyncHttpCrawler(500, 10)) {
+            Optional<String> html = crawler.crawl(server.url("/single"));
+            assertTrue(html.isPresent());
+            assertTrue(html.get().contains("/single"));
+
+            assertFalse(crawler.crawl(server.url("/single-slow?delay=3000")).isPresent());
+        }
+    }
+
+    @Test
+    public void keepsManyFetchesInFlight() throws Exception {
+        // 1000 urls that each take 200ms: one after another or 20 at a time
+        // that is 200s or 10s, all at once it is well under that
+        List<String> urls = urls("/many/", 1000, "?delay=200");
+
+        try (AsyncHttpCrawler crawler = new AsyncHttpCrawler(20000, 1000)) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            Map<String, String> result = crawler.crawl(urls);
+
+            assertEquals(1000, result.size());
+            assertTrue("took " + stopwatch, stopwatch.elapsed(TimeUnit.MILLISECONDS) < 5000);
+        }
+    }
+
+    private static List<String> urls(String prefix, int count, String query) {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            urls.add(server.url(prefix + i + query));
+        }
+        return urls;
+    }
+
+    @Test
+    public void revalidatesPreviousPage() throws Exception {
+        server.addPage("/validated", "text/html", "<html><body>validated</body></html>");
+        String url = server.url("/validated");
+
+        try (AsyncHttpCrawler crawler = new AsyncHttpCrawler(1000, 10)) {
+            Page first = crawler.crawlAsync(url, null).get().get();
+            assertTrue(first.hasValidators());
+            int notModified = server.notModified();
+
+            // the server confirms the page with either validator, the body is not sent again
+            Page byEtag = crawler.crawlAsync(url, previous(first, first.getEtag(), null)).get().get();
+            Page byDate = crawler.crawlAsync(url, previous(first, null, first.getLastModified())).get().get();
+
+            assertEquals(notModified + 2, server.notModified());
+            for (Page page : Arrays.asList(byEtag, byDate)) {
+                assertEquals("previous html", page.getHtml());
+                assertTrue(page.getFetchedAt() > 0);
+            }
+        }
+    }
+
+    private static Page previous(Page page, String etag, String lastModified) {
+        return new Page(page.getUrl(), "previous html", etag, lastModified, 0);
+    }
+
+}
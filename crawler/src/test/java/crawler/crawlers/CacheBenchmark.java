@@ -0,0 +1,244 @@
+package crawler.crawlers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.HTreeMap;
+
+import crawler.Corpus;
+import crawler.crawlers.CompressingSerializer.Codec;
+
+/**
+ * Compares the disk tier of {@link CachingCrawler} with every codec against
+ * the layout it had before the pages were compressed (a plain MapDB map with
+ * the default serializers) on a corpus of saved html pages: the size of the
+ * file, the latency of put and get, and the throughput of cache hits. The
+ * memory tier is switched off, so every get reads the disk tier.
+ * <br>
+ * Arguments: copies of the corpus to put (20), seconds of the hit throughput
+ * run (5), threads of the hit throughput run (8). The corpus is read from
+ * -Dcorpus, see {@link Corpus}.
+ */
+public class CacheBenchmark {
+
+    private static final int TTL_HOURS = 24;
+
+    public static void main(String[] args) throws Exception {
+        int copies = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+
+        Map<String, String> corpus = Corpus.load();
+        Map<String, String> pages = new LinkedHashMap<>();
+        for (int i = 0; i < copies; i++) {
+            for (Map.Entry<String, String> e : corpus.entrySet()) {
+                pages.put(e.getKey() + "?copy=" + i, e.getValue());
+            }
+        }
+
+        long chars = Corpus.totalLength(pages.values());
+        System.out.printf("%d pages (%d distinct), %.1f MB of html, %d KB per page on average%n", pages.size(),
+                corpus.size(), chars / 1e6, chars / pages.size() / 1024);
+        System.out.printf("%-8s %9s %9s %9s %9s %9s %11s %9s%n", "layout", "file MB", "put avg", "put p99",
+                "get avg", "get p99", "hits/s", "MB/s");
+
+        // the first run only warms up the jit
+        run("warm up", new PlainStore(), pages, 1, threads, false);
+        run("plain", new PlainStore(), pages, seconds, threads, true);
+        for (Codec codec : Codec.values()) {
+            run(codec.name(), new CachingStore(codec, pages), pages, seconds, threads, true);
+        }
+    }
+
+    private static void run(String name, Store store, Map<String, String> pages, int seconds, int threads,
+            boolean print) throws Exception {
+        List<String> urls = new ArrayList<>(pages.keySet());
+
+        store.open();
+        long[] puts = new long[urls.size()];
+        for (int i = 0; i < urls.size(); i++) {
+            String url = urls.get(i);
+            long start = System.nanoTime();
+            store.put(url, pages.get(url));
+            puts[i] = System.nanoTime() - start;
+        }
+        store.close();
+        long fileBytes = store.file().length();
+
+        store.open();
+        Collections.shuffle(urls);
+        long[] gets = new long[urls.size()];
+        for (int i = 0; i < urls.size(); i++) {
+            long start = System.nanoTime();
+            if (store.get(urls.get(i)) == null) {
+                throw new IllegalStateException("no page for " + urls.get(i));
+            }
+            gets[i] = System.nanoTime() - start;
+        }
+
+        long[] hits = hitThroughput(store, urls, seconds, threads);
+        store.close();
+        store.file().delete();
+
+        if (print) {
+            System.out.printf("%-8s %9.1f %7.3fms %7.3fms %7.3fms %7.3fms %11.0f %9.1f%n", name, fileBytes / 1e6,
+                    avgMs(puts), p99Ms(puts), avgMs(gets), p99Ms(gets), hits[0] / (double) seconds,
+                    hits[1] / 1e6 / seconds);
+        }
+    }
+
+    /**
+     * @return the number of hits and the number of html chars they returned
+     */
+    private static long[] hitThroughput(Store store, List<String> urls, int seconds, int threads)
+            throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<long[]>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t * urls.size() / threads;
+            results.add(executor.submit(() -> {
+                long count = 0;
+                long chars = 0;
+                for (int i = offset; !stop.get(); i++) {
+                    chars = chars + store.get(urls.get(i % urls.size())).length();
+                    count++;
+                }
+                return new long[] { count, chars };
+            }));
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+        stop.set(true);
+
+        long[] total = new long[2];
+        for (Future<long[]> result : results) {
+            total[0] = total[0] + result.get()[0];
+            total[1] = total[1] + result.get()[1];
+        }
+        executor.shutdown();
+        return total;
+    }
+
+    private static double avgMs(long[] nanos) {
+        return Arrays.stream(nanos).average().getAsDouble() / 1e6;
+    }
+
+    private static double p99Ms(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) (sorted.length * 0.99)] / 1e6;
+    }
+
+    private interface Store {
+        void open();
+
+        void put(String url, String html);
+
+        String get(String url);
+
+        void close() throws Exception;
+
+        File file();
+    }
+
+    /**
+     * The disk tier as it was before the compressed layout: html values in a
+     * map with the default serializers of MapDB.
+     */
+    private static class PlainStore implements Store {
+
+        private final File file = new File("cache/benchmark-plain.db");
+        private DB db;
+        private Map<String, String> map;
+
+        @Override
+        public void open() {
+            file.getParentFile().mkdir();
+            db = DBMaker.fileDB(file).closeOnJvmShutdown().make();
+            HTreeMap<?, ?> htreeMap = db.hashMap("urls").expireAfterCreate(TTL_HOURS, TimeUnit.HOURS).createOrOpen();
+            @SuppressWarnings("unchecked")
+            Map<String, String> map = (Map<String, String>) htreeMap;
+            this.map = map;
+        }
+
+        @Override
+        public void put(String url, String html) {
+            map.put(url, html);
+        }
+
+        @Override
+        public String get(String url) {
+            return map.get(url);
+        }
+
+        @Override
+        public void close() {
+            db.close();
+        }
+
+        @Override
+        public File file() {
+            return file;
+        }
+    }
+
+    /**
+     * The disk tier of CachingCrawler: a put is a crawl of a url that is not
+     * cached yet, a get is a crawl of a cached one.
+     */
+    private static class CachingStore implements Store {
+
+        private final String name;
+        private final Crawler corpus;
+        private final CacheSettings settings = new CacheSettings();
+        private CachingCrawler cache;
+
+        CachingStore(Codec codec, Map<String, String> pages) {
+            this.name = "benchmark-" + codec.name().toLowerCase();
+            this.corpus = new CorpusCrawler(pages);
+            settings.setCodec(codec);
+            settings.setMemoryBytes(0);
+        }
+
+        @Override
+        public void open() {
+            cache = new CachingCrawler(corpus, name, TTL_HOURS, settings);
+        }
+
+        @Override
+        public void put(String url, String html) {
+            cache.crawl(url);
+        }
+
+        @Override
+        public String get(String url) {
+            String[] html = new String[1];
+            cache.crawl(Collections.singletonList(url), page -> html[0] = page.getHtml());
+            return html[0];
+        }
+
+        @Override
+        public void close() throws Exception {
+            cache.close();
+        }
+
+        @Override
+        public File file() {
+            return new File("cache/" + name + ".db");
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+package crawler.crawlers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import crawler.Corpus;
+
+/**
+ * JMH benchmark of the put and get throughput of the disk tier of
+ * {@link CachingCrawler} with the storage settings of application.properties
+ * (crawler.cache.mmap, crawler.cache.segments, crawler.cache.write.behind),
+ * at 1, 8 and 32 threads. The memory tier is switched off, so every get reads
+ * the disk tier.
+ * <br>
+ * Arguments: the thread counts (1 8 32). The pages are taken from -Dcorpus,
+ * see {@link Corpus}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 3)
+@Fork(1)
+public class CacheThroughputBenchmark {
+
+    private static final int URLS = 2000;
+
+    @Param({ "false", "true" })
+    public boolean mmap;
+
+    @Param({ "1", "8" })
+    public int segments;
+
+    @Param({ "false", "true" })
+    public boolean writeBehind;
+
+    private CachingCrawler cache;
+    private List<String> urls;
+
+    @Setup(Level.Trial)
+    public void open() throws Exception {
+        List<String> pages = new ArrayList<>(Corpus.load().values());
+        Map<String, String> corpus = new LinkedHashMap<>();
+        for (int i = 0; i < URLS; i++) {
+            corpus.put("http://corpus/" + i, pages.get(i % pages.size()));
+        }
+        urls = new ArrayList<>(corpus.keySet());
+
+        CacheSettings settings = new CacheSettings();
+        settings.setMemoryBytes(0);
+        settings.setMmap(mmap);
+        settings.setSegments(segments);
+        settings.setWriteBehind(writeBehind);
+
+        dbFile().delete();
+        cache = new CachingCrawler(new CorpusCrawler(corpus), dbName(), 24, settings);
+        for (String url : urls) {
+            cache.crawl(url);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        cache.close();
+        dbFile().delete();
+    }
+
+    /**
+     * A crawl of a url that is not cached yet: the page is written to the
+     * cache.
+     */
+    @Benchmark
+    public Object put() {
+        return cache.crawl(randomUrl());
+    }
+
+    /**
+     * A crawl of a cached url.
+     */
+    @Benchmark
+    public Object get() {
+        return cache.crawl(Collections.singletonList(randomUrl()));
+    }
+
+    private String randomUrl() {
+        return urls.get(ThreadLocalRandom.current().nextInt(urls.size()));
+    }
+
+    private String dbName() {
+        return "jmh-" + mmap + "-" + segments + "-" + writeBehind;
+    }
+
+    private File dbFile() {
+        return new File("cache/" + dbName() + ".db");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] threads = args.length > 0 ? args : new String[] { "1", "8", "32" };
+        for (String count : threads) {
+            Options options = new OptionsBuilder()
+                    .include(CacheThroughputBenchmark.class.getSimpleName())
+                    .threads(Integer.parseInt(count))
+                    .build();
+            new Runner(options).run();
+        }
+    }
+
+}
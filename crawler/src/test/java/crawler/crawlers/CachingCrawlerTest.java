@@ -0,0 +1,309 @@
+package crawler.crawlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.HTreeMap;
+
+import com.google.common.base.Strings;
+
+public class CachingCrawlerTest {
+
+    private static final String NAME = "caching-crawler-test";
+    private static final String URL = "http://a.com/";
+    private static final String HTML = "<html>" + Strings.repeat("a", 300) + "</html>";
+
+    @After
+    public void deleteCache() {
+        dbFile().delete();
+    }
+
+    @Test
+    public void dropsCacheOfOlderFormat() throws Exception {
+        // the layout before the pages had validators
+        dbFile().getParentFile().mkdir();
+        DB old = DBMaker.fileDB(dbFile()).make();
+        HTreeMap<?, ?> urls = old.hashMap("urls").createOrOpen();
+        @SuppressWarnings("unchecked")
+        Map<String, String> map = (Map<String, String>) urls;
+        map.put(URL, HTML);
+        old.close();
+
+        new CachingCrawler(new CorpusCrawler(new HashMap<>()), NAME, 1).close();
+
+        DB db = DBMaker.fileDB(dbFile()).make();
+        try {
+            assertFalse(db.exists("urls"));
+            assertTrue(db.exists("validated_pages"));
+        } finally {
+            db.close();
+        }
+    }
+
+    @Test
+    public void keepsCacheOfCurrentFormat() throws Exception {
+        try (CachingCrawler cache = new CachingCrawler(crawler(URL, HTML), NAME, 1)) {
+            assertEquals(Optional.of(HTML), cache.crawl(URL));
+        }
+
+        // the pages now come only from the disk
+        try (CachingCrawler cache = new CachingCrawler(new CorpusCrawler(new HashMap<>()), NAME, 1)) {
+            Map<String, String> result = cache.crawl(Collections.singletonList(URL));
+            assertEquals(HTML, result.get(URL));
+            assertEquals(1L, (long) cache.stats().get("disk.hits"));
+        }
+    }
+
+    @Test
+    public void servesRepeatedCrawlFromMemory() throws Exception {
+        try (CachingCrawler cache = new CachingCrawler(crawler(URL, HTML), NAME, 1)) {
+            assertEquals(HTML, crawlOne(cache).getHtml());
+            assertEquals(HTML, crawlOne(cache).getHtml());
+
+            Map<String, Long> stats = cache.stats();
+            assertEquals(1L, (long) stats.get("memory.hits"));
+            assertEquals(1L, (long) stats.get("memory.misses"));
+            assertEquals(1L, (long) stats.get("memory.entries"));
+            // the disk is asked only on the first, missed crawl
+            assertEquals(0L, (long) stats.get("disk.hits"));
+            assertEquals(1L, (long) stats.get("disk.misses"));
+        }
+    }
+
+    @Test
+    public void evictsFromMemoryPastItsBudget() throws Exception {
+        Map<String, String> pages = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            pages.put(URL + i, HTML);
+        }
+        List<String> urls = new ArrayList<>(pages.keySet());
+
+        CacheSettings settings = new CacheSettings();
+        // room for about 10 pages, a page weighs twice its characters
+        settings.setMemoryBytes(10 * 2 * (URL.length() + 2 + HTML.length()));
+        try (CachingCrawler cache = new CachingCrawler(new CorpusCrawler(pages), NAME, 1, settings)) {
+            cache.crawl(urls);
+            long entries = cache.stats().get("memory.entries");
+            assertTrue("entries " + entries, entries > 0 && entries <= 10);
+
+            // the evicted pages are still on the disk
+            assertEquals(pages, cache.crawl(urls));
+            Map<String, Long> stats = cache.stats();
+            assertEquals(100L, stats.get("memory.hits") + stats.get("disk.hits"));
+            assertTrue("disk hits " + stats.get("disk.hits"), stats.get("disk.hits") >= 90);
+            assertEquals(100L, (long) stats.get("disk.misses"));
+        }
+    }
+
+    @Test
+    public void servesStalePageWhileRefreshingIt() throws Exception {
+        ScriptedCrawler crawler = new ScriptedCrawler(page("v1", 90), page("v2", 0));
+        try (CachingCrawler cache = new CachingCrawler(crawler, NAME, 1, maxStale(2))) {
+            assertFalse(crawlOne(cache).isStale());
+
+            // expired an hour ago, but still within the max staleness
+            Page stale = crawlOne(cache);
+            assertTrue(stale.isStale());
+            assertEquals(page("v1", 0).getHtml(), stale.getHtml());
+            assertEquals(1L, (long) cache.stats().get("stale.hits"));
+
+            Page refreshed = waitForHtml(cache, page("v2", 0).getHtml());
+            assertFalse(refreshed.isStale());
+            assertEquals(2, crawler.fetches.get());
+        }
+    }
+
+    @Test
+    public void treatsPageOlderThanMaxStaleAsMiss() throws Exception {
+        ScriptedCrawler crawler = new ScriptedCrawler(page("v1", 4 * 60), page("v2", 0));
+        try (CachingCrawler cache = new CachingCrawler(crawler, NAME, 1, maxStale(2))) {
+            crawlOne(cache);
+
+            Page page = crawlOne(cache);
+            assertFalse(page.isStale());
+            assertEquals(page("v2", 0).getHtml(), page.getHtml());
+            assertEquals(0L, (long) cache.stats().get("stale.hits"));
+        }
+    }
+
+    @Test
+    public void doesNotServeStalePagesByDefault() throws Exception {
+        ScriptedCrawler crawler = new ScriptedCrawler(page("v1", 90), page("v2", 0));
+        try (CachingCrawler cache = new CachingCrawler(crawler, NAME, 1, maxStale(0))) {
+            crawlOne(cache);
+
+            Page page = crawlOne(cache);
+            assertFalse(page.isStale());
+            assertEquals(page("v2", 0).getHtml(), page.getHtml());
+        }
+    }
+
+    @Test
+    public void refreshesStalePageOnlyOnce() throws Exception {
+        ScriptedCrawler crawler = new ScriptedCrawler(page("v1", 90), page("v2", 0));
+        crawler.latency = 200;
+        try (CachingCrawler cache = new CachingCrawler(crawler, NAME, 1, maxStale(2))) {
+            crawlOne(cache);
+
+            // all the requests come while the first refresh is still running
+            for (int i = 0; i < 5; i++) {
+                assertTrue(crawlOne(cache).isStale());
+            }
+
+            waitForHtml(cache, page("v2", 0).getHtml());
+            assertEquals(2, crawler.fetches.get());
+        }
+    }
+
+    @Test
+    public void concurrentMissesShareOneFetch() throws Exception {
+        LatchedCrawler crawler = new LatchedCrawler();
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try (CachingCrawler cache = new CachingCrawler(crawler, NAME, 1)) {
+            List<Future<Page>> requests = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                requests.add(executor.submit(() -> crawlOne(cache)));
+            }
+            assertTrue(crawler.started.await(5, TimeUnit.SECONDS));
+            // the other requests miss the cache while the first fetch is held
+            Thread.sleep(200);
+            crawler.release.countDown();
+
+            for (Future<Page> request : requests) {
+                assertEquals(HTML, request.get(5, TimeUnit.SECONDS).getHtml());
+            }
+            assertEquals(1, crawler.fetches.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Crawler crawler(String url, String html) {
+        Map<String, String> pages = new HashMap<>();
+        pages.put(url, html);
+        return new CorpusCrawler(pages);
+    }
+
+    private static File dbFile() {
+        return new File("cache/" + NAME + ".db");
+    }
+
+    private static Page crawlOne(CachingCrawler cache) {
+        List<Page> pages = new ArrayList<>();
+        cache.crawl(Collections.singletonList(URL), pages::add);
+        assertEquals(1, pages.size());
+        return pages.get(0);
+    }
+
+    private static Page waitForHtml(CachingCrawler cache, String html) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        Page page = crawlOne(cache);
+        while (!html.equals(page.getHtml()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            page = crawlOne(cache);
+        }
+        assertEquals(html, page.getHtml());
+        return page;
+    }
+
+    private static Page page(String version, int ageMinutes) {
+        long fetchedAt = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(ageMinutes);
+        return new Page(URL, HTML.replace("<html>", "<html>" + version), null, null, fetchedAt);
+    }
+
+    private static CacheSettings maxStale(int hours) {
+        CacheSettings settings = new CacheSettings();
+        settings.setMaxStaleHours(hours);
+        return settings;
+    }
+
+    /**
+     * Holds every fetch until {@link #release} is counted down, and counts
+     * the fetches
+     */
+    private static class LatchedCrawler extends CorpusCrawler {
+
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger fetches = new AtomicInteger();
+
+        LatchedCrawler() {
+            super(Collections.singletonMap(URL, HTML));
+        }
+
+        @Override
+        public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+            fetches.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.crawl(urls, previous, callback);
+        }
+    }
+
+    /**
+     * Returns the given pages one by one, whatever url is crawled.
+     */
+    private static class ScriptedCrawler implements Crawler {
+
+        private final BlockingQueue<Page> pages;
+        private final AtomicInteger fetches = new AtomicInteger();
+        private volatile long latency = 0;
+
+        ScriptedCrawler(Page... pages) {
+            this.pages = new LinkedBlockingQueue<>(Arrays.asList(pages));
+        }
+
+        @Override
+        public Optional<String> crawl(String url) {
+            return Optional.ofNullable(next()).map(Page::getHtml);
+        }
+
+        @Override
+        public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+            for (String url : urls) {
+                Page page = next();
+                if (page != null) {
+                    callback.accept(page);
+                }
+            }
+        }
+
+        private Page next() {
+            fetches.incrementAndGet();
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return pages.poll();
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package crawler.crawlers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * A crawler that answers from a map of pages in memory, for testing the
+ * layers above the crawler.
+ */
+class CorpusCrawler implements Crawler {
+
+    private final Map<String, String> pages;
+
+    CorpusCrawler(Map<String, String> pages) {
+        this.pages = pages;
+    }
+
+    @Override
+    public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+        for (String url : urls) {
+            String html = pages.get(url);
+            if (html != null) {
+                callback.accept(new Page(url, html));
+            }
+        }
+    }
+
+    @Override
+    public Optional<String> crawl(String url) {
+        return Optional.ofNullable(pages.get(url));
+    }
+
+}
@@ -0,0 +1,61 @@
+package crawler.crawlers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Compares the blocking HttpComponentsCrawler with a pool of 20 threads (the
+ * default crawler.threads) and the non-blocking AsyncHttpCrawler on a batch
+ * of urls served by a local stub server that answers every url after a delay.
+ * <br>
+ * Arguments: number of urls (2000), delay of the server in ms (100)
+ */
+public class EngineBenchmark {
+
+    private static final int THREADS = 20;
+    private static final int TIMEOUT = 60000;
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int delay = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        try (StubHttpServer server = new StubHttpServer()) {
+            ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+            try (HttpComponentsCrawler blocking = new HttpComponentsCrawler(TIMEOUT, THREADS, THREADS,
+                    HttpPages.DEFAULT_MAX_BYTES, executor);
+                    AsyncHttpCrawler async = new AsyncHttpCrawler(TIMEOUT, count, count,
+                            HttpPages.DEFAULT_MAX_BYTES)) {
+                // warm up the connections and the jit
+                run("warm up", blocking, urls(server, "/warm-blocking/", 200, delay));
+                run("warm up", async, urls(server, "/warm-async/", 200, delay));
+
+                run("blocking", blocking, urls(server, "/blocking/", count, delay));
+                run("async", async, urls(server, "/async/", count, delay));
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    private static void run(String name, Crawler crawler, List<String> urls) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        int crawled = crawler.crawl(urls).size();
+        long ms = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+        System.out.printf("%-10s %5d urls, %5d crawled in %6d ms, %8.1f pages/s%n", name, urls.size(), crawled, ms,
+                crawled * 1000.0 / Math.max(1, ms));
+    }
+
+    private static List<String> urls(StubHttpServer server, String prefix, int count, int delay) {
+        List<String> urls = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            urls.add(server.url(prefix + i + "?delay=" + delay));
+        }
+        return urls;
+    }
+
+}
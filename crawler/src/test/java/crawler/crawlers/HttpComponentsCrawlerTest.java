@@ -0,0 +1,85 @@
+package crawler.crawlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Stopwatch;
+
+public class HttpComponentsCrawlerTest {
+
+    private static StubHttpServer server;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = new StubHttpServer();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        server.close();
+    }
+
+    @After
+    public void stopExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void batchTimeoutCountsFromSubmission() throws Exception {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            urls.add(server.url("/queued/" + i + "?delay=600"));
+        }
+
+        // one thread: every fetch is in time on its own, but the later ones wait in the queue
+        try (HttpComponentsCrawler crawler = new HttpComponentsCrawler(1000, executor)) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            Map<String, String> result = crawler.crawl(urls);
+
+            assertTrue("took " + stopwatch, stopwatch.elapsed(TimeUnit.MILLISECONDS) < 1800);
+            assertEquals(1, result.size());
+        }
+    }
+
+    @Test
+    public void revalidatesPreviousPage() throws Exception {
+        server.addPage("/validated", "text/html", "<html><body>validated</body></html>");
+        String url = server.url("/validated");
+
+        try (HttpComponentsCrawler crawler = new HttpComponentsCrawler(1000, executor)) {
+            Page first = crawler.crawlAsync(url, null).get().get();
+            assertTrue(first.hasValidators());
+            int notModified = server.notModified();
+
+            // the server confirms the page with either validator, the body is not sent again
+            Page byEtag = crawler.crawlAsync(url, previous(first, first.getEtag(), null)).get().get();
+            Page byDate = crawler.crawlAsync(url, previous(first, null, first.getLastModified())).get().get();
+
+            assertEquals(notModified + 2, server.notModified());
+            for (Page page : Arrays.asList(byEtag, byDate)) {
+                assertEquals("previous html", page.getHtml());
+                assertTrue(page.getFetchedAt() > 0);
+            }
+        }
+    }
+
+    private static Page previous(Page page, String etag, String lastModified) {
+        return new Page(page.getUrl(), "previous html", etag, lastModified, 0);
+    }
+
+}
@@ -0,0 +1,103 @@
+package crawler.crawlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+public class HttpPagesTest {
+
+    private static final int MAX_BYTES = 1000;
+    private static final String HTML = "<html><body><p>caf\u00e9</p></body></html>";
+
+    private static StubHttpServer server;
+    private static CloseableHttpClient client;
+
+    @BeforeClass
+    public static void start() throws Exception {
+        server = new StubHttpServer();
+        client = HttpClients.createDefault();
+
+        String page = "<html><body>" + Strings.repeat("x", MAX_BYTES - 26) + "</body></html>";
+        server.addPage("/max", "text/html", page);
+        server.addPage("/over", "text/html", page + "x");
+        server.addPage("/image", "image/png", HTML);
+        server.addPage("/plain", "text/plain", HTML);
+        server.addPage("/header", "text/html; charset=ISO-8859-1", HTML.getBytes(StandardCharsets.ISO_8859_1));
+        server.addPage("/meta", "text/html", ("<html><head><meta charset=\"windows-1252\"></head>" + HTML)
+                .getBytes("windows-1252"));
+        byte[] utf16 = HTML.getBytes(StandardCharsets.UTF_16LE);
+        byte[] bom = new byte[utf16.length + 2];
+        bom[0] = (byte) 0xFF;
+        bom[1] = (byte) 0xFE;
+        System.arraycopy(utf16, 0, bom, 2, utf16.length);
+        // the BOM wins over the header
+        server.addPage("/bom", "text/html; charset=ISO-8859-1", bom);
+        server.addPage("/default", "text/html", HTML);
+    }
+
+    @AfterClass
+    public static void stop() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void readsBodyUpToLimit() throws Exception {
+        assertEquals(MAX_BYTES, fetch("/max").get().getHtml().length());
+        assertEquals(MAX_BYTES, fetch("/max?chunked=true").get().getHtml().length());
+    }
+
+    @Test
+    public void skipsBodyOverLimit() throws Exception {
+        // announced by the Content-Length
+        assertFalse(fetch("/over").isPresent());
+        // found while reading
+        assertFalse(fetch("/over?chunked=true").isPresent());
+    }
+
+    @Test
+    public void readsBodyLongerThanInitialBuffer() throws Exception {
+        String url = server.url("/long?chunked=true&size=100000");
+        try (CloseableHttpResponse response = client.execute(new HttpGet(url))) {
+            String html = HttpPages.toPage(url, response, null, HttpPages.DEFAULT_MAX_BYTES).get().getHtml();
+            assertTrue(html.length() >= 100000);
+            assertTrue(html.endsWith("</body></html>"));
+        }
+    }
+
+    @Test
+    public void skipsContentTypesOtherThanHtml() throws Exception {
+        assertFalse(fetch("/image").isPresent());
+        assertEquals(HTML, fetch("/plain").get().getHtml());
+    }
+
+    @Test
+    public void detectsCharset() throws Exception {
+        assertEquals(HTML, fetch("/header").get().getHtml());
+        assertTrue(fetch("/meta").get().getHtml().endsWith(HTML));
+        assertTrue(fetch("/bom").get().getHtml().endsWith(HTML));
+        assertEquals(HTML, fetch("/default").get().getHtml());
+    }
+
+    private static Optional<Page> fetch(String pathAndQuery) throws IOException {
+        String url = server.url(pathAndQuery);
+        try (CloseableHttpResponse response = client.execute(new HttpGet(url))) {
+            return HttpPages.toPage(url, response, null, MAX_BYTES);
+        }
+    }
+
+}
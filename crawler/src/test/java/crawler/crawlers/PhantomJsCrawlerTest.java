@@ -0,0 +1,162 @@
+package crawler.crawlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Test;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import com.google.common.base.Stopwatch;
+
+import crawler.crawlers.PhantomJsCrawler.PooledDriver;
+
+/**
+ * Runs {@link PhantomJsCrawler} on fake drivers: a url containing "hang"
+ * blocks the driver until its process is killed, like a PhantomJS that
+ * never answers, and one containing "slow" takes {@link #SLOW} ms.
+ */
+public class PhantomJsCrawlerTest {
+
+    private static final int INSTANCES = 4;
+    private static final int TIMEOUT = 200;
+    private static final int SLOW = 150;
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger hanging = new AtomicInteger();
+
+    @Test
+    public void leaksNoThreadsOrDriversUnderSustainedTimeouts() throws Exception {
+        int threadsBefore = Thread.activeCount();
+        int rounds = 5;
+        // every url gets a driver at once, so the pages are not held up by the hanging urls
+        int urlsPerKind = INSTANCES / 2;
+
+        ExecutorService executor = Executors.newFixedThreadPool(INSTANCES);
+        DriverPoolSettings settings = new DriverPoolSettings();
+        settings.setMaxPagesPerDriver(1);
+        try (PhantomJsCrawler crawler = new PhantomJsCrawler(INSTANCES, TIMEOUT, 0, executor, settings,
+                PageReadiness.sleep(), ResourceBlocking.none(), this::launch)) {
+            for (int round = 0; round < rounds; round++) {
+                List<String> urls = new ArrayList<>();
+                for (int i = 0; i < urlsPerKind; i++) {
+                    urls.add("http://test/" + round + "/hang/" + i);
+                    urls.add("http://test/" + round + "/page/" + i);
+                }
+
+                Map<String, String> result = crawler.crawl(urls);
+
+                assertEquals(urlsPerKind, result.size());
+                assertTrue(result.keySet().stream().allMatch(url -> url.contains("/page/")));
+            }
+
+            // the batch ends with its timeout, the killing of the drivers may still go on
+            assertTrue(waitFor(() -> hanging.get() == 0 && (Integer) crawler.stats().get("active") == 0));
+            Map<String, Object> stats = crawler.stats();
+            assertEquals(stats.toString(), (long) rounds * urlsPerKind, stats.get("timeouts"));
+            assertEquals(stats.toString(), 0, stats.get("active"));
+            assertEquals(stats.toString(), 0L, stats.get("dead"));
+            assertTrue(stats.toString(), (Long) stats.get("recycled") > 0);
+            // every killed or recycled driver is gone, only the idle ones are left
+            assertEquals(0, hanging.get());
+            assertEquals(stats.toString(), stats.get("idle"), running.get());
+            assertEquals(stats.toString(), (long) running.get(),
+                    (Long) stats.get("created") - (Long) stats.get("destroyed"));
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(0, running.get());
+        assertTrue("threads before " + threadsBefore + ", after " + Thread.activeCount(),
+                waitForThreads(threadsBefore));
+    }
+
+    @Test
+    public void batchTimeoutCountsWaitForDriver() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(INSTANCES);
+        // every url is in time on its own, but there is only one driver
+        try (PhantomJsCrawler crawler = new PhantomJsCrawler(1, TIMEOUT, 0, executor, new DriverPoolSettings(),
+                PageReadiness.sleep(), ResourceBlocking.none(), this::launch)) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            Map<String, String> result = crawler.crawl(Arrays.asList("http://test/slow/1", "http://test/slow/2",
+                    "http://test/slow/3", "http://test/slow/4"));
+
+            assertTrue("took " + stopwatch, stopwatch.elapsed(TimeUnit.MILLISECONDS) < 2 * SLOW + TIMEOUT / 2);
+            assertEquals(1, result.size());
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private boolean waitForThreads(int expected) throws InterruptedException {
+        return waitFor(() -> Thread.activeCount() <= expected);
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(50);
+        }
+        return true;
+    }
+
+    private PooledDriver launch(DesiredCapabilities capabilities) {
+        running.incrementAndGet();
+        CountDownLatch killed = new CountDownLatch(1);
+        WebDriver driver = (WebDriver) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { WebDriver.class }, (proxy, method, args) -> {
+                    if (killed.getCount() == 0) {
+                        throw new WebDriverException("the process is killed");
+                    }
+                    switch (method.getName()) {
+                    case "get":
+                        if (((String) args[0]).contains("hang")) {
+                            hanging.incrementAndGet();
+                            try {
+                                killed.await();
+                            } finally {
+                                hanging.decrementAndGet();
+                            }
+                            throw new WebDriverException("the process is killed");
+                        }
+                        if (((String) args[0]).contains("slow")) {
+                            Thread.sleep(SLOW);
+                        }
+                        return null;
+                    case "getPageSource":
+                        return "<html></html>";
+                    case "getWindowHandle":
+                        return "window";
+                    case "quit":
+                        killed.countDown();
+                        running.decrementAndGet();
+                        return null;
+                    default:
+                        return null;
+                    }
+                });
+        return new PooledDriver(driver, () -> {
+            killed.countDown();
+            running.decrementAndGet();
+        });
+    }
+
+}
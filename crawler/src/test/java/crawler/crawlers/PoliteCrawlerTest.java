@@ -0,0 +1,179 @@
+package crawler.crawlers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Stopwatch;
+
+public class PoliteCrawlerTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void createExecutor() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void respectsPerHostLimitAndDelay() throws Exception {
+        FakeAsyncCrawler fake = new FakeAsyncCrawler(100);
+        try (PoliteCrawler polite = new PoliteCrawler(fake, executor, 2, 50, 10000)) {
+            Map<String, String> result = polite.crawl(urls("a.com", 20));
+
+            assertEquals(20, result.size());
+            assertEquals(2, fake.maxConcurrency("a.com"));
+            List<Long> starts = fake.starts("a.com");
+            for (int i = 1; i < starts.size(); i++) {
+                long gap = starts.get(i) - starts.get(i - 1);
+                assertTrue("starts " + gap + " ms apart", gap >= 45);
+            }
+        }
+    }
+
+    @Test
+    public void doesNotTakeThreadsForAsyncCrawlers() throws Exception {
+        // the executor rejects everything, so all the fetches must go to the crawler directly
+        executor.shutdownNow();
+        FakeAsyncCrawler fake = new FakeAsyncCrawler(50);
+        List<String> urls = new ArrayList<>();
+        for (int host = 0; host < 50; host++) {
+            urls.addAll(urls("host" + host + ".com", 10));
+        }
+
+        try (PoliteCrawler polite = new PoliteCrawler(fake, executor, 10, 0, 10000)) {
+            Map<String, String> result = polite.crawl(urls);
+            assertEquals(500, result.size());
+        }
+    }
+
+    @Test
+    public void runsOtherCrawlersOnTheExecutor() throws Exception {
+        Crawler blocking = new Crawler() {
+            @Override
+            public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+                urls.forEach(url -> callback.accept(new Page(url, "<html>" + url + "</html>")));
+            }
+
+            @Override
+            public Optional<String> crawl(String url) {
+                return Optional.of("<html>" + url + "</html>");
+            }
+        };
+
+        try (PoliteCrawler polite = new PoliteCrawler(blocking, executor, 2, 0, 10000)) {
+            assertEquals(10, polite.crawl(urls("b.com", 10)).size());
+        }
+    }
+
+    @Test
+    public void batchWaitIsBounded() throws Exception {
+        FakeAsyncCrawler fake = new FakeAsyncCrawler(200);
+        try (PoliteCrawler polite = new PoliteCrawler(fake, executor, 1, 0, 300)) {
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            Map<String, String> result = polite.crawl(urls("slow.com", 10));
+
+            assertTrue("took " + stopwatch, stopwatch.elapsed(TimeUnit.MILLISECONDS) < 1000);
+            assertTrue(result.size() < 10);
+
+            // the urls still waiting in the queue are dropped, not crawled later
+            Thread.sleep(500);
+            assertTrue(fake.starts("slow.com").size() <= 3);
+        }
+    }
+
+    @Test
+    public void removesHostQueuesWhenIdle() throws Exception {
+        FakeAsyncCrawler fake = new FakeAsyncCrawler(10);
+        try (PoliteCrawler polite = new PoliteCrawler(fake, executor, 2, 100, 10000)) {
+            polite.crawl(urls("c.com", 4));
+            polite.crawl(urls("d.com", 4));
+            assertTrue(polite.hostQueues() > 0);
+
+            Thread.sleep(300);
+            assertEquals(0, polite.hostQueues());
+        }
+    }
+
+    private static List<String> urls(String host, int count) {
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            urls.add("http://" + host + "/" + i);
+        }
+        return urls;
+    }
+
+    /**
+     * Completes every fetch after a latency, without taking a thread, and
+     * records when the fetches of every host start
+     */
+    private static class FakeAsyncCrawler implements AsyncCrawler {
+        private final long latency;
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+        private final Map<String, AtomicInteger> running = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> maxRunning = new ConcurrentHashMap<>();
+        private final Map<String, List<Long>> starts = new ConcurrentHashMap<>();
+
+        FakeAsyncCrawler(long latency) {
+            this.latency = latency;
+        }
+
+        @Override
+        public CompletableFuture<Optional<Page>> crawlAsync(String url, Page previous) {
+            String host = URI.create(url).getHost();
+            starts.computeIfAbsent(host, h -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(System.currentTimeMillis());
+            int now = running.computeIfAbsent(host, h -> new AtomicInteger()).incrementAndGet();
+            maxRunning.computeIfAbsent(host, h -> new AtomicInteger()).accumulateAndGet(now, Math::max);
+
+            CompletableFuture<Optional<Page>> result = new CompletableFuture<>();
+            timer.schedule(() -> {
+                running.get(host).decrementAndGet();
+                result.complete(Optional.of(new Page(url, "<html>" + url + "</html>")));
+            }, latency, TimeUnit.MILLISECONDS);
+            return result;
+        }
+
+        int maxConcurrency(String host) {
+            return maxRunning.get(host).get();
+        }
+
+        List<Long> starts(String host) {
+            return starts.get(host);
+        }
+
+        @Override
+        public void crawl(List<String> urls, Map<String, Page> previous, Consumer<Page> callback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Optional<String> crawl(String url) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package crawler.crawlers;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Stopwatch;
+
+/**
+ * Compares the page load time of {@link PhantomJsCrawler} with and without
+ * {@link ResourceBlocking} on a page with many sub-resources, served by a
+ * local stub server that answers every sub-resource after a delay: images,
+ * stylesheets and fonts from the same host, and scripts and images of a
+ * third party domain ("localhost", the page itself is on 127.0.0.1). The
+ * page waits for the network to go idle, as with
+ * crawler.js.readiness=network.
+ * <br>
+ * Needs the PhantomJS binary, see download-phantomjs.sh; another location
+ * can be given with -Dphantomjs=path.
+ * <br>
+ * Arguments: number of page loads per mode (20), number of sub-resources of
+ * every kind (10), delay of the sub-resources in ms (200)
+ */
+public class ResourceBlockingBenchmark {
+
+    private static final int TIMEOUT = 60000;
+
+    public static void main(String[] args) throws Exception {
+        int loads = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int resources = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int delay = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        File phantomJs = new File(System.getProperty("phantomjs", "phantomjs/phantomjs"));
+        if (!phantomJs.canExecute()) {
+            System.err.println("no PhantomJS binary at " + phantomJs.getAbsolutePath()
+                    + ", run download-phantomjs.sh or pass -Dphantomjs=path");
+            System.exit(1);
+        }
+        PhantomJsCrawler.setPhantomJsPathToBin(phantomJs.getAbsolutePath());
+
+        try (StubHttpServer server = new StubHttpServer()) {
+            server.addPage("/page", "text/html; charset=UTF-8", page(server, resources, delay));
+
+            ResourceBlocking blocking = ResourceBlocking.of("image,font,stylesheet,media", "localhost");
+            run("unblocked", server, ResourceBlocking.none(), loads);
+            run("blocked", server, blocking, loads);
+        }
+    }
+
+    private static void run(String name, StubHttpServer server, ResourceBlocking blocking, int loads)
+            throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        PageReadiness readiness = PageReadiness.of("network", null);
+        try (PhantomJsCrawler crawler = new PhantomJsCrawler(1, TIMEOUT, 0, executor, new DriverPoolSettings(),
+                readiness, blocking)) {
+            // the first load starts PhantomJS
+            crawler.crawl(server.url("/page?warm-up"));
+
+            long[] times = new long[loads];
+            int requestsBefore = server.requests();
+            for (int i = 0; i < loads; i++) {
+                Stopwatch stopwatch = Stopwatch.createStarted();
+                if (!crawler.crawl(server.url("/page?load=" + i)).isPresent()) {
+                    throw new IllegalStateException("the page was not loaded");
+                }
+                times[i] = stopwatch.elapsed(TimeUnit.MILLISECONDS);
+            }
+            int requests = (server.requests() - requestsBefore) / loads;
+
+            Arrays.sort(times);
+            System.out.printf("%-10s %3d loads, avg %6d ms, p50 %6d ms, max %6d ms, %3d requests per load%n", name,
+                    loads, (long) Arrays.stream(times).average().getAsDouble(), times[loads / 2],
+                    times[loads - 1], requests);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String page(StubHttpServer server, int resources, int delay) {
+        String thirdParty = server.url("").replace("127.0.0.1", "localhost");
+        StringBuilder html = new StringBuilder();
+        html.append("<html><head><title>page</title>\n");
+        for (int i = 0; i < resources; i++) {
+            html.append("<link rel=stylesheet href='/css/").append(i).append(".css?delay=").append(delay)
+                    .append("'>\n");
+            html.append("<script src='").append(thirdParty).append("/ads/").append(i).append(".js?delay=")
+                    .append(delay).append("'></script>\n");
+        }
+        html.append("<style>\n");
+        for (int i = 0; i < resources; i++) {
+            html.append("@font-face { font-family: f").append(i).append("; src: url('/fonts/").append(i)
+                    .append(".woff?delay=").append(delay).append("'); }\n");
+            html.append(".f").append(i).append(" { font-family: f").append(i).append("; }\n");
+        }
+        html.append("</style></head><body>\n");
+        for (int i = 0; i < resources; i++) {
+            html.append("<p class=f").append(i).append(">text ").append(i).append("</p>\n");
+            html.append("<img src='/images/").append(i).append(".png?delay=").append(delay).append("'>\n");
+            html.append("<img src='").append(thirdParty).append("/pixel/").append(i).append(".gif?delay=")
+                    .append(delay).append("'>\n");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+}
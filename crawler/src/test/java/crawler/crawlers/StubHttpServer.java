@@ -0,0 +1,169 @@
+package crawler.crawlers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Splitter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local http server for the tests and benchmarks. Pages added with
+ * {@link #addPage} are served as they are, any other path gets a generated
+ * html page; the query parameters {@code delay} (ms before answering) and
+ * {@code size} (bytes of padding) control the generated pages, and
+ * {@code chunked=true} sends any page without a Content-Length. The
+ * added pages have an ETag and a Last-Modified, a conditional request that
+ * matches either gets 304 Not Modified.
+ */
+public class StubHttpServer implements AutoCloseable {
+
+    static {
+        // past 200 idle connections the jdk server silently closes the ones
+        // that finish, a client reusing them then fails with connection closed
+        System.setProperty("sun.net.httpserver.maxIdleConnections", "10000");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, StubPage> pages = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+
+    public StubHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 4096);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String url(String pathAndQuery) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + pathAndQuery;
+    }
+
+    public void addPage(String path, String contentType, String body) {
+        addPage(path, contentType, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void addPage(String path, String contentType, byte[] body) {
+        pages.put(path, new StubPage(contentType, body));
+    }
+
+    public int requests() {
+        return requests.get();
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public int notModified() {
+        return notModified.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        inFlight.incrementAndGet();
+        try {
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+            sleep(Long.parseLong(params.getOrDefault("delay", "0")));
+
+            boolean chunked = Boolean.parseBoolean(params.get("chunked"));
+
+            StubPage page = pages.get(path);
+            if (page != null && page.matches(exchange)) {
+                notModified.incrementAndGet();
+                // the server may drop the connection after a 304, the client must not reuse it
+                exchange.getResponseHeaders().set("Connection", "close");
+                exchange.sendResponseHeaders(304, -1);
+            } else if (page != null) {
+                exchange.getResponseHeaders().set("ETag", page.etag);
+                exchange.getResponseHeaders().set("Last-Modified", StubPage.LAST_MODIFIED);
+                send(exchange, page.contentType, page.body, chunked);
+            } else {
+                int size = Integer.parseInt(params.getOrDefault("size", "0"));
+                byte[] body = generated(path, size).getBytes(StandardCharsets.UTF_8);
+                send(exchange, "text/html; charset=UTF-8", body, chunked);
+            }
+        } catch (IOException e) {
+            // the client has gone, e.g. after a timeout
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private static String generated(String path, int size) {
+        StringBuilder html = new StringBuilder(size + 100);
+        html.append("<html><head><title>").append(path).append("</title></head><body><p>");
+        html.append(path).append("</p>");
+        while (html.length() < size) {
+            html.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit.</p>\n");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    private static void send(HttpExchange exchange, String contentType, byte[] body, boolean chunked)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, chunked ? 0 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> params(String query) {
+        if (query == null) {
+            return new HashMap<>();
+        }
+        return new HashMap<>(Splitter.on('&').omitEmptyStrings().withKeyValueSeparator('=').split(query));
+    }
+
+    private static void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private static final class StubPage {
+        private static final String LAST_MODIFIED = "Sat, 01 Oct 2016 10:00:00 GMT";
+
+        private final String contentType;
+        private final byte[] body;
+        private final String etag;
+
+        private StubPage(String contentType, byte[] body) {
+            this.contentType = contentType;
+            this.body = body;
+            this.etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+        }
+
+        boolean matches(HttpExchange exchange) {
+            return etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))
+                    || LAST_MODIFIED.equals(exchange.getRequestHeaders().getFirst("If-Modified-Since"));
+        }
+    }
+
+}
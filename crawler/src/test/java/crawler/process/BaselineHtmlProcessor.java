@@ -0,0 +1,93 @@
+package crawler.process;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.select.Elements;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+
+import crawler.model.ProcessedHtml;
+
+/**
+ * {@link HtmlProcessor} as it was before the single traversal and the
+ * streaming cleaner: the page is parsed into a DOM, the dropped elements are
+ * removed from it, and the body is serialized and parsed again for the text.
+ * Kept to compare the output and the performance with.
+ */
+class BaselineHtmlProcessor {
+
+    private static final String TAGS_TO_REMOVE = "iframe, embed, script, noscript, nobr, "
+            + "style, link, img, source, wbr, area, base, param";
+
+    public String clean(String html) {
+        Document doc = Jsoup.parse(html);
+        doc.select(TAGS_TO_REMOVE).remove();
+        removeComments(doc);
+        return doc.outerHtml();
+    }
+
+    public ProcessedHtml process(String html) {
+        Document doc = Jsoup.parse(html);
+        String title = doc.title();
+
+        ProcessedHtml result = new ProcessedHtml();
+        result.setTitle(title);
+
+        Elements description = doc.select("meta[name=description]");
+        if (!description.isEmpty()) {
+            String metaContent = description.attr("content");
+            result.setMetaContent(metaContent);
+        }
+
+        Elements keywords = doc.select("meta[name=keywords]");
+        if (!keywords.isEmpty()) {
+            String metaKeywords = keywords.attr("content");
+            result.setMetaKeywords(metaKeywords);
+        }
+
+        doc.select(TAGS_TO_REMOVE).remove();
+
+        String bodyHtml = doc.select("body").outerHtml();
+        Document body = Jsoup.parse(bodyHtml);
+
+        BaselineTextExtractor visitor = new BaselineTextExtractor();
+        body.traverse(visitor);
+        String content = visitor.getText();
+        result.setContent(content);
+
+        ListMultimap<String, String> tags = ArrayListMultimap.create();
+        Elements headers = body.select("h1, h2, h3, h4, h5, h6");
+        for (Element htag : headers) {
+            String tagName = htag.nodeName().toLowerCase();
+            String text = htag.text().trim();
+            if (!text.isEmpty()) {
+                tags.put(tagName, text);
+            }
+        }
+
+        result.setH1(tags.get("h1"));
+        result.setH2(tags.get("h2"));
+        result.setH3(tags.get("h3"));
+        result.setH4(tags.get("h4"));
+        result.setH5(tags.get("h5"));
+        result.setH6(tags.get("h6"));
+
+        return result;
+    }
+
+    private static void removeComments(Node node) {
+        for (int i = 0; i < node.childNodes().size();) {
+            Node child = node.childNode(i);
+            if (child.nodeName().equals("#comment"))
+                child.remove();
+            else {
+                removeComments(child);
+                i++;
+            }
+        }
+    }
+
+}
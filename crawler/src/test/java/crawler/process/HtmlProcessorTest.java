@@ -0,0 +1,79 @@
+package crawler.process;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import crawler.Corpus;
+import crawler.model.ProcessedHtml;
+
+public class HtmlProcessorTest {
+
+    private static final List<String> SAMPLES = Arrays.asList(
+            "<p>foo<script>x()</script>bar</p>",
+            "click<img src=x>here",
+            "<p>foo<!-- comment -->bar</p>",
+            "<div>a<noscript><p>b</p></noscript>c</div><p>d</p>",
+            "<p>one <b>two</b>three<wbr>four</p>",
+            "<html><head><title> The  title </title><meta name=description content=desc>"
+                    + "<meta name=keywords content='a, b'></head><body><h1>Head<img src=a.png>line</h1>"
+                    + "<h2>Sub <span>heading</span></h2><ul><li>x<li>y</ul><table><tr><td>1<td>2</table>"
+                    + "<p>&amp; &nbsp; &copy; \u201Cquoted\u201D \u2014 dash</p></body></html>",
+            "<h1>a<h2>b</h2>c</h1><h3>  </h3><pre>  keep   this </pre>",
+            "<body><div><style>p {}</style>styled<iframe src=x>frame</iframe>text</div></body>",
+            "no markup at all",
+            "");
+
+    private final HtmlProcessor processor = new HtmlProcessor();
+    private final BaselineHtmlProcessor baseline = new BaselineHtmlProcessor();
+
+    @Test
+    public void joinsTextAroundRemovedElements() {
+        assertEquals("foobar", processor.process("<p>foo<script>x()</script>bar</p>").getContent());
+        assertEquals("clickhere", processor.process("click<img src=x>here").getContent());
+    }
+
+    @Test
+    public void matchesBaselineOnSamples() {
+        for (String html : SAMPLES) {
+            assertSameResult(html, baseline.process(html), processor.process(html));
+        }
+    }
+
+    @Test
+    public void matchesBaselineOnCorpus() throws Exception {
+        Assume.assumeTrue("no -Dcorpus", System.getProperty("corpus") != null);
+
+        List<String> different = new ArrayList<>();
+        Map<String, String> corpus = Corpus.load();
+        for (Map.Entry<String, String> page : corpus.entrySet()) {
+            try {
+                assertSameResult(page.getKey(), baseline.process(page.getValue()),
+                        processor.process(page.getValue()));
+            } catch (AssertionError e) {
+                different.add(page.getKey() + ": " + e.getMessage());
+            }
+        }
+        assertEquals(corpus.size() + " pages", Arrays.asList(), different);
+    }
+
+    private static void assertSameResult(String html, ProcessedHtml expected, ProcessedHtml actual) {
+        assertEquals(html, expected.getTitle(), actual.getTitle());
+        assertEquals(html, expected.getMetaContent(), actual.getMetaContent());
+        assertEquals(html, expected.getMetaKeywords(), actual.getMetaKeywords());
+        assertEquals(html, expected.getContent(), actual.getContent());
+        assertEquals(html, expected.getH1(), actual.getH1());
+        assertEquals(html, expected.getH2(), actual.getH2());
+        assertEquals(html, expected.getH3(), actual.getH3());
+        assertEquals(html, expected.getH4(), actual.getH4());
+        assertEquals(html, expected.getH5(), actual.getH5());
+        assertEquals(html, expected.getH6(), actual.getH6());
+    }
+
+}
@@ -0,0 +1,57 @@
+package crawler.process;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Assume;
+import org.junit.Test;
+
+import crawler.Corpus;
+
+public class JsoupTextExtractorTest {
+
+    private static final List<String> SAMPLES = Arrays.asList(
+            "<p>  many   spaces\n\tand\r\nlines </p><p></p><div> </div>",
+            "<ul><li>one<li>two<li></ul><br>after<hr>rule",
+            "<p>&amp;amp; &lt;tag&gt; &copy; &unknown; & alone &amp</p>",
+            "<p>\u00A0non\u00A0breaking\u00A0</p><p>\u2018quotes\u2019 \u201Cdouble\u201D \u2026 \u2014</p>",
+            "<pre>  keep\n  lines  </pre><td>cell</td><option>opt</option>",
+            "<div><div><p>nested</p>tail</div></div>",
+            "");
+
+    @Test
+    public void matchesBaselineOnSamples() {
+        for (String html : SAMPLES) {
+            Document doc = Jsoup.parse(html);
+            assertEquals(html, baseline(doc), current(doc));
+        }
+    }
+
+    @Test
+    public void matchesBaselineOnCorpus() throws Exception {
+        Assume.assumeTrue("no -Dcorpus", System.getProperty("corpus") != null);
+
+        for (Map.Entry<String, String> page : Corpus.load().entrySet()) {
+            Document doc = Jsoup.parse(page.getValue());
+            assertEquals(page.getKey(), baseline(doc), current(doc));
+        }
+    }
+
+    private static String baseline(Document doc) {
+        BaselineTextExtractor extractor = new BaselineTextExtractor();
+        doc.body().traverse(extractor);
+        return extractor.getText();
+    }
+
+    private static String current(Document doc) {
+        JsoupTextExtractor extractor = new JsoupTextExtractor();
+        doc.body().traverse(extractor);
+        return extractor.getText();
+    }
+
+}
@@ -0,0 +1,76 @@
+package crawler.process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import crawler.Corpus;
+import crawler.model.ProcessedHtml;
+
+/**
+ * JMH benchmark of {@link HtmlProcessor#process(String)} against the
+ * implementation that parsed the body twice ({@link BaselineHtmlProcessor}),
+ * over a corpus of saved html pages. Every operation processes one page of
+ * the corpus, so the score is in pages per second, and gc.alloc.rate.norm of
+ * the gc profiler is the allocation per page. The pages are taken from
+ * -Dcorpus, see {@link Corpus}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcessingBenchmark {
+
+    @Param({ "baseline", "current" })
+    public String implementation;
+
+    private List<String> pages;
+    private int next = 0;
+
+    private HtmlProcessor current;
+    private BaselineHtmlProcessor baseline;
+
+    @Setup
+    public void load() throws Exception {
+        pages = new ArrayList<>(Corpus.load().values());
+        current = new HtmlProcessor();
+        baseline = new BaselineHtmlProcessor();
+    }
+
+    @Benchmark
+    public ProcessedHtml process() {
+        String html = pages.get(next);
+        next = (next + 1) % pages.size();
+        if ("baseline".equals(implementation)) {
+            return baseline.process(html);
+        }
+        return current.process(html);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(ProcessingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
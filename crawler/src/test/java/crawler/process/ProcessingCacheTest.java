@@ -0,0 +1,40 @@
+package crawler.process;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ProcessingCacheTest {
+
+    private static final String URL = "http://a.com/";
+    private static final String STATIC = "<html><body><p>static</p></body></html>";
+    private static final String RENDERED = "<html><body><p>rendered by js</p></body></html>";
+
+    @Test
+    public void keepsJsAndNonJsPagesOfSameUrl() {
+        ProcessingCache cache = new ProcessingCache(new HtmlProcessor(), 1024 * 1024);
+
+        // alternating js=true and js=false requests for the same url
+        for (int i = 0; i < 3; i++) {
+            assertEquals("static", cache.process(URL, STATIC).getContent().trim());
+            assertEquals("rendered by js", cache.process(URL, RENDERED).getContent().trim());
+        }
+
+        assertEquals(2L, cache.stats().get("misses"));
+        assertEquals(4L, cache.stats().get("hits"));
+        assertEquals(2L, cache.stats().get("processed.size"));
+    }
+
+    @Test
+    public void recomputesWhenHtmlChanges() {
+        ProcessingCache cache = new ProcessingCache(new HtmlProcessor(), 1024 * 1024);
+
+        cache.clean(URL, STATIC);
+        cache.clean(URL, STATIC);
+        cache.clean(URL, RENDERED);
+
+        assertEquals(2L, cache.stats().get("misses"));
+        assertEquals(1L, cache.stats().get("hits"));
+    }
+
+}
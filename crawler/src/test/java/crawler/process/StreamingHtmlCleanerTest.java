@@ -0,0 +1,109 @@
+package crawler.process;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Attribute;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeVisitor;
+import org.junit.Assume;
+import org.junit.Test;
+
+import crawler.Corpus;
+
+public class StreamingHtmlCleanerTest {
+
+    private static final List<String> SAMPLES = Arrays.asList(
+            "<p><img alt=it's src=a.png>after</p><p>next</p>",
+            "<div data-x=it's>text</div><script>evil()</script><p>kept</p>",
+            "<div title=\"a > b\" data-y='it\"s'>quoted</div><style>p { }</style>",
+            "<div>a<noscript><p>b</p>c</div><p>kept</p>",
+            "<ul><li>a<noscript>b</li><li>c</li></ul>",
+            "<body><p>a<noscript>b</body><!-- end -->",
+            "<div>a<noscript><noscript>b</noscript>c</noscript>d</div>",
+            "<p>one<!-- comment -->two</p><iframe src=x>frame</iframe><embed src=y><wbr>",
+            "<html><head><title>a <b> title</title><link rel=stylesheet href=a.css>"
+                    + "<base href=/></head><body><textarea><script>kept</script></textarea></body></html>",
+            "<p>a < b and c<d</p><br/><img src=x />after",
+            "<SCRIPT type=text/javascript>var a = '</div>';</SCRIPT><P>upper</P>",
+            "<table><tr><td>1<td>2<nobr>3</nobr></table><area href=x><param name=a>",
+            "");
+
+    private final BaselineHtmlProcessor baseline = new BaselineHtmlProcessor();
+
+    @Test
+    public void quoteInUnquotedValueDoesNotStartValue() {
+        assertEquals("<p>after</p>", StreamingHtmlCleaner.clean("<p><img alt=it's src=a.png>after</p>"));
+        assertEquals("<div data-x=it's>text</div>",
+                StreamingHtmlCleaner.clean("<div data-x=it's>text</div><script>evil()</script>"));
+        assertEquals("<div title=\"a > b\">quoted</div>",
+                StreamingHtmlCleaner.clean("<div title=\"a > b\">quoted</div><img alt = 'x > y'>"));
+    }
+
+    @Test
+    public void unclosedElementEndsAtParentOrBody() {
+        assertEquals("<div>a</div><p>kept</p>", StreamingHtmlCleaner.clean("<div>a<noscript>b</div><p>kept</p>"));
+        assertEquals("<body><p>a</body></html>",
+                StreamingHtmlCleaner.clean("<body><p>a<nobr>b</body></html>"));
+        assertEquals("<p>a", StreamingHtmlCleaner.clean("<p>a<noscript>b"));
+    }
+
+    @Test
+    public void matchesBaselineOnSamples() {
+        for (String html : SAMPLES) {
+            assertEquals(html, canonical(baseline.clean(html)), canonical(StreamingHtmlCleaner.clean(html)));
+        }
+    }
+
+    @Test
+    public void matchesBaselineOnCorpus() throws Exception {
+        Assume.assumeTrue("no -Dcorpus", System.getProperty("corpus") != null);
+
+        for (Map.Entry<String, String> page : Corpus.load().entrySet()) {
+            String html = page.getValue();
+            assertEquals(page.getKey(), canonical(baseline.clean(html)), canonical(StreamingHtmlCleaner.clean(html)));
+        }
+    }
+
+    /**
+     * The tree Jsoup builds from the cleaned html, one node per line, without
+     * the whitespace between the tags: the baseline pretty prints its output
+     * and the streaming cleaner does not.
+     */
+    private static String canonical(String html) {
+        StringBuilder result = new StringBuilder();
+        Jsoup.parse(html).traverse(new NodeVisitor() {
+            @Override
+            public void head(Node node, int depth) {
+                if (node instanceof TextNode) {
+                    String text = ((TextNode) node).text().trim();
+                    if (!text.isEmpty()) {
+                        result.append(text).append('\n');
+                    }
+                } else if (node instanceof Element) {
+                    Map<String, String> attributes = new TreeMap<>();
+                    for (Attribute attribute : node.attributes()) {
+                        attributes.put(attribute.getKey(), attribute.getValue());
+                    }
+                    result.append('<').append(((Element) node).tagName()).append(attributes).append(">\n");
+                }
+            }
+
+            @Override
+            public void tail(Node node, int depth) {
+                if (node instanceof Element) {
+                    result.append("</").append(((Element) node).tagName()).append(">\n");
+                }
+            }
+        });
+        return result.toString();
+    }
+
+}
@@ -0,0 +1,78 @@
+package crawler.process;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import crawler.Corpus;
+
+/**
+ * JMH benchmark of {@link JsoupTextExtractor} against the regex based
+ * {@link BaselineTextExtractor}. The corpus pages are parsed in the setup,
+ * every operation extracts the text of one parsed page, so gc.alloc.rate.norm
+ * of the gc profiler is the allocation of the extraction per page. The pages
+ * are taken from -Dcorpus, see {@link Corpus}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextExtractorBenchmark {
+
+    @Param({ "baseline", "current" })
+    public String implementation;
+
+    private List<Document> pages;
+    private int next = 0;
+
+    @Setup
+    public void parse() throws Exception {
+        pages = new ArrayList<>();
+        for (String html : Corpus.load().values()) {
+            pages.add(Jsoup.parse(html));
+        }
+    }
+
+    @Benchmark
+    public String extract() {
+        Document page = pages.get(next);
+        next = (next + 1) % pages.size();
+        if ("baseline".equals(implementation)) {
+            BaselineTextExtractor extractor = new BaselineTextExtractor();
+            page.body().traverse(extractor);
+            return extractor.getText();
+        }
+        JsoupTextExtractor extractor = new JsoupTextExtractor();
+        page.body().traverse(extractor);
+        return extractor.getText();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(TextExtractorBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,9 @@
+#!/bin/bash
+
+echo
+echo 'Building the model...'
+echo 
+
+mvn clean install -DskipTests
+
+echo 'DONE: the model is installed in the local repository'
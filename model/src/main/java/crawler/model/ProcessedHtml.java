@@ -1,4 +1,4 @@
-package crawler.process;
+package crawler.model;
 
 import java.util.List;
 